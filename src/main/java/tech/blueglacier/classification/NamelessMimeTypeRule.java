@@ -0,0 +1,27 @@
+package tech.blueglacier.classification;
+
+import org.apache.james.mime4j.stream.BodyDescriptor;
+
+/**
+ * Assigns a role to parts of the given mime type that carry no file name.
+ */
+public class NamelessMimeTypeRule implements PartClassificationRule {
+
+	private final String mimeType;
+	private final PartRole role;
+
+	public NamelessMimeTypeRule(String mimeType, PartRole role) {
+		if (mimeType == null || role == null) {
+			throw new IllegalArgumentException();
+		}
+		this.mimeType = mimeType;
+		this.role = role;
+	}
+
+	public PartRole classify(BodyDescriptor bd, String attachmentName) {
+		if (attachmentName == null && bd.getMimeType().equalsIgnoreCase(mimeType)) {
+			return role;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,29 @@
+package tech.blueglacier.classification;
+
+/**
+ * Outcome of classifying a single mime part: its role and its decoded file name.
+ */
+public final class PartClassification {
+
+	private final PartRole role;
+	private final String attachmentName;
+
+	public PartClassification(PartRole role, String attachmentName) {
+		if (role == null) {
+			throw new IllegalArgumentException();
+		}
+		this.role = role;
+		this.attachmentName = attachmentName;
+	}
+
+	public PartRole getRole() {
+		return role;
+	}
+
+	/**
+	 * @return the decoded file name of the part, <code>null</code> if the part carries none
+	 */
+	public String getAttachmentName() {
+		return attachmentName;
+	}
+}
@@ -0,0 +1,17 @@
+package tech.blueglacier.classification;
+
+import org.apache.james.mime4j.stream.BodyDescriptor;
+
+/**
+ * A single rule of a {@link PartClassifier}. Implementations are shared across
+ * parses and must be thread safe.
+ */
+public interface PartClassificationRule {
+
+	/**
+	 * @param bd             descriptor of the part
+	 * @param attachmentName decoded file name of the part, <code>null</code> if it carries none
+	 * @return the role of the part, or <code>null</code> if this rule does not apply
+	 */
+	PartRole classify(BodyDescriptor bd, String attachmentName);
+}
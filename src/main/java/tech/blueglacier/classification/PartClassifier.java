@@ -0,0 +1,62 @@
+package tech.blueglacier.classification;
+
+import org.apache.james.mime4j.stream.BodyDescriptor;
+import tech.blueglacier.util.Common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes the file name of a mime part once and decides its role by applying
+ * an ordered list of {@link PartClassificationRule}s; the first rule returning
+ * a role wins. Parts no rule applies to are attachments when they carry a file
+ * name and unidentified otherwise.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * List&lt;PartClassificationRule&gt; rules = PartClassifier.getDefaultRules();
+ * rules.add(new NamelessMimeTypeRule("text/enriched", PartRole.PLAIN_TEXT_BODY));
+ * PartClassifier classifier = new PartClassifier(rules);
+ * </pre>
+ */
+public class PartClassifier {
+
+	public static final PartClassifier DEFAULT = new PartClassifier(getDefaultRules());
+
+	private final List<PartClassificationRule> rules;
+
+	public PartClassifier(List<PartClassificationRule> rules) {
+		if (rules == null) {
+			throw new IllegalArgumentException();
+		}
+		this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+	}
+
+	/**
+	 * @return a modifiable copy of the rules recognizing plain text, html and calendar bodies
+	 */
+	public static List<PartClassificationRule> getDefaultRules() {
+		List<PartClassificationRule> rules = new ArrayList<>();
+		rules.add(new NamelessMimeTypeRule("text/plain", PartRole.PLAIN_TEXT_BODY));
+		rules.add(new NamelessMimeTypeRule("text/html", PartRole.HTML_BODY));
+		rules.add(new NamelessMimeTypeRule("text/calendar", PartRole.CALENDAR_BODY));
+		return rules;
+	}
+
+	public List<PartClassificationRule> getRules() {
+		return rules;
+	}
+
+	public PartClassification classify(BodyDescriptor bd) {
+		String attachmentName = Common.getAttachmentName(bd);
+		for (PartClassificationRule rule : rules) {
+			PartRole role = rule.classify(bd, attachmentName);
+			if (role != null) {
+				return new PartClassification(role, attachmentName);
+			}
+		}
+		return new PartClassification(attachmentName == null ? PartRole.UNIDENTIFIED : PartRole.ATTACHMENT, attachmentName);
+	}
+}
@@ -0,0 +1,21 @@
+package tech.blueglacier.classification;
+
+import org.apache.james.mime4j.stream.BodyDescriptor;
+
+/**
+ * Decides which mime parts of a message are kept. Rejected parts are neither
+ * decoded nor stored. Implementations are shared across parses and must be
+ * thread safe.
+ */
+public interface PartFilter {
+
+	PartFilter ACCEPT_ALL = (bd, classification, position) -> true;
+
+	/**
+	 * @param bd             descriptor of the part
+	 * @param classification role and decoded file name of the part
+	 * @param position       zero based index of the part among the leaf parts of the message
+	 * @return whether the part is to be kept
+	 */
+	boolean accept(BodyDescriptor bd, PartClassification classification, int position);
+}
@@ -0,0 +1,15 @@
+package tech.blueglacier.classification;
+
+/**
+ * Role a mime part plays when the email is recreated as seen by a user.
+ */
+public enum PartRole {
+	PLAIN_TEXT_BODY,
+	HTML_BODY,
+	CALENDAR_BODY,
+	ATTACHMENT,
+	/**
+	 * Neither a body nor an attachment carrying a file name.
+	 */
+	UNIDENTIFIED
+}
@@ -0,0 +1,139 @@
+package tech.blueglacier.classification;
+
+import org.apache.james.mime4j.stream.BodyDescriptor;
+import tech.blueglacier.util.Common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link PartFilter} keeping parts by mime type pattern or file name
+ * extension, declared size and position. A part is kept when it matches any of
+ * the mime types or extensions (or none are configured), does not declare a
+ * size above the maximum and lies before the maximum position.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * PartFilter filter = SelectivePartFilter.custom()
+ *         .addMimeType("text/*")
+ *         .addFileExtension("pdf")
+ *         .setMaxDeclaredSize(10 * 1024 * 1024)
+ *         .build();
+ * </pre>
+ */
+public final class SelectivePartFilter implements PartFilter {
+
+	private final List<String> mimeTypes;
+	private final List<String> fileExtensions;
+	private final long maxDeclaredSize;
+	private final int maxPosition;
+
+	private SelectivePartFilter(Builder builder) {
+		this.mimeTypes = Collections.unmodifiableList(new ArrayList<>(builder.mimeTypes));
+		this.fileExtensions = Collections.unmodifiableList(new ArrayList<>(builder.fileExtensions));
+		this.maxDeclaredSize = builder.maxDeclaredSize;
+		this.maxPosition = builder.maxPosition;
+	}
+
+	public boolean accept(BodyDescriptor bd, PartClassification classification, int position) {
+		if (maxPosition >= 0 && position >= maxPosition) {
+			return false;
+		}
+		if (maxDeclaredSize >= 0 && Common.getDeclaredSize(bd) > maxDeclaredSize) {
+			return false;
+		}
+		if (mimeTypes.isEmpty() && fileExtensions.isEmpty()) {
+			return true;
+		}
+		return matchesMimeType(bd.getMimeType()) || matchesFileExtension(classification.getAttachmentName());
+	}
+
+	private boolean matchesMimeType(String mimeType) {
+		for (String pattern : mimeTypes) {
+			if (pattern.equals("*/*") || pattern.equalsIgnoreCase(mimeType)) {
+				return true;
+			}
+			if (pattern.endsWith("/*") && mimeType.regionMatches(true, 0, pattern, 0, pattern.length() - 1)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean matchesFileExtension(String attachmentName) {
+		if (attachmentName == null) {
+			return false;
+		}
+		for (String extension : fileExtensions) {
+			String suffix = "." + extension;
+			if (attachmentName.regionMatches(true, attachmentName.length() - suffix.length(), suffix, 0, suffix.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static Builder custom() {
+		return new Builder();
+	}
+
+	public static final class Builder {
+
+		private final List<String> mimeTypes;
+		private final List<String> fileExtensions;
+		private long maxDeclaredSize;
+		private int maxPosition;
+
+		private Builder() {
+			mimeTypes = new ArrayList<>();
+			fileExtensions = new ArrayList<>();
+			maxDeclaredSize = -1;
+			maxPosition = -1;
+		}
+
+		/**
+		 * @param mimeType a mime type such as <code>application/pdf</code>, or a
+		 *                 pattern matching a whole media type such as <code>text/*</code>
+		 */
+		public Builder addMimeType(String mimeType) {
+			if (mimeType == null) {
+				throw new IllegalArgumentException();
+			}
+			mimeTypes.add(mimeType);
+			return this;
+		}
+
+		/**
+		 * @param fileExtension extension of the decoded file name without the leading dot
+		 */
+		public Builder addFileExtension(String fileExtension) {
+			if (fileExtension == null) {
+				throw new IllegalArgumentException();
+			}
+			fileExtensions.add(fileExtension);
+			return this;
+		}
+
+		/**
+		 * Rejects parts declaring a larger size; -1, the default, disables the check.
+		 */
+		public Builder setMaxDeclaredSize(long maxDeclaredSize) {
+			this.maxDeclaredSize = maxDeclaredSize;
+			return this;
+		}
+
+		/**
+		 * Rejects parts at or after the given position; -1, the default, disables the check.
+		 */
+		public Builder setMaxPosition(int maxPosition) {
+			this.maxPosition = maxPosition;
+			return this;
+		}
+
+		public SelectivePartFilter build() {
+			return new SelectivePartFilter(this);
+		}
+	}
+}
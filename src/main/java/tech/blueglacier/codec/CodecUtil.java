@@ -1,11 +1,24 @@
 package tech.blueglacier.codec;
 
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.james.mime4j.codec.Base64InputStream;
+import org.apache.james.mime4j.codec.DecodeMonitor;
+import org.apache.james.mime4j.codec.QuotedPrintableInputStream;
+import org.apache.james.mime4j.util.MimeUtil;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 public class CodecUtil {
 	static final int DEFAULT_ENCODING_BUFFER_SIZE = 1024;
+	// Must be a multiple of 3 so that chunks encode without intermediate padding
+	static final int BASE64_ENCODING_BUFFER_SIZE = 3 * DEFAULT_ENCODING_BUFFER_SIZE;
 
 	/**
 	 * Copies the contents of one stream to the other.
@@ -24,4 +37,87 @@ public class CodecUtil {
 		}
 		return totalBytesTransferred;
 	}
+
+	/**
+	 * Writes the remaining bytes of a buffer to a channel, which may accept only part of them per call.
+	 * @param buffer not null, its position is moved to its limit
+	 * @param target not null
+	 * @return total bytes written
+	 * @throws IOException
+	 */
+	public static long writeFully(final ByteBuffer buffer, final WritableByteChannel target) throws IOException {
+		long totalBytesWritten = 0;
+		while (buffer.hasRemaining()) {
+			int bytesWritten = target.write(buffer);
+			if (bytesWritten <= 0) {
+				// A full or non-blocking channel would otherwise be retried forever
+				throw new IOException("channel accepted no more bytes after " + totalBytesWritten);
+			}
+			totalBytesWritten += bytesWritten;
+		}
+		return totalBytesWritten;
+	}
+
+	/**
+	 * Narrows a stream to a range of its content by skipping, for content offering no random access.
+	 * @param in not null, closed along with the returned stream
+	 * @param offset first byte of the range
+	 * @param length maximum number of bytes in the range
+	 * @return a stream ending at the end of the range or of the content, whichever comes first
+	 * @throws IOException
+	 */
+	public static InputStream range(final InputStream in, final long offset, final long length) throws IOException {
+		IOUtils.skip(in, offset);
+		return new BoundedInputStream(in, length);
+	}
+
+	/**
+	 * Wraps a stream of transfer encoded content into one decoding it while it is read.
+	 * @param in not null
+	 * @param transferEncoding value of the Content-Transfer-Encoding header, may be null
+	 * @param monitor not null
+	 * @return a decoding stream for base64 and quoted-printable content, <code>in</code> otherwise
+	 */
+	public static InputStream decode(final InputStream in, final String transferEncoding, final DecodeMonitor monitor) {
+		if (MimeUtil.isBase64Encoding(transferEncoding)) {
+			return new Base64InputStream(in, monitor);
+		}
+		if (MimeUtil.isQuotedPrintableEncoded(transferEncoding)) {
+			return new QuotedPrintableInputStream(in, monitor);
+		}
+		return in;
+	}
+
+	/**
+	 * @return whether content in the given transfer encoding differs from its decoded form
+	 */
+	public static boolean isDecodingRequired(final String transferEncoding) {
+		return MimeUtil.isBase64Encoding(transferEncoding) || MimeUtil.isQuotedPrintableEncoded(transferEncoding);
+	}
+
+	/**
+	 * Base64 encodes the contents of a stream into a writer, one chunk at a time.
+	 * The output is identical to {@link Base64#encodeBase64String(byte[])} of the
+	 * whole content.
+	 * @param in not null
+	 * @param out not null
+	 * @return total bytes encoded
+	 * @throws IOException
+	 */
+	public static long copyBase64Encoded(final InputStream in, final Writer out) throws IOException {
+		final Base64 base64 = new Base64();
+		final byte[] buffer = new byte[BASE64_ENCODING_BUFFER_SIZE];
+		final char[] encodedChars = new char[BASE64_ENCODING_BUFFER_SIZE / 3 * 4];
+		int inputLength;
+		long totalBytesEncoded = 0;
+		while (0 < (inputLength = IOUtils.read(in, buffer))) {
+			byte[] encoded = base64.encode(buffer, 0, inputLength);
+			for (int i = 0; i < encoded.length; i++) {
+				encodedChars[i] = (char) encoded[i];
+			}
+			out.write(encodedChars, 0, encoded.length);
+			totalBytesEncoded += inputLength;
+		}
+		return totalBytesEncoded;
+	}
 }
@@ -5,59 +5,73 @@ import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.commons.io.FilenameUtils;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
+/**
+ * Settings read once from <code>conf/emailParserConfig.xml</code>. Everything
+ * is worked out when the instance is created and never changes afterwards, so
+ * lookups from concurrent parses take no lock.
+ */
 public class AppConfig {
 
-	private volatile static AppConfig objectInstance = null;
-
-	private final Configuration appConfig;
-	private volatile Properties charSetMap = null;
+	private final Properties charSetMap;
+	private final Map<String, String> charSetFallbacks;
+	private final String[] imageFileFormats;
 
 	private AppConfig() {
+		Configuration appConfig;
 		try {
-			this.appConfig = new XMLConfiguration(this.getClass().getClassLoader().getResource("conf/emailParserConfig.xml"));
+			appConfig = new XMLConfiguration(this.getClass().getClassLoader().getResource("conf/emailParserConfig.xml"));
 		} catch (ConfigurationException e) {
 			throw new RuntimeException(e);		
 		}
+		Map<String, String> fallbacks = new HashMap<>();
+		String[] arrStr = appConfig.getStringArray("appSettings.charSetFallback");
+		for (String value : arrStr) {
+			String temp = value;
+			String parentCharSet = temp.substring(temp.indexOf(':') + 1);
+			temp = temp.substring(0, temp.indexOf(':'));
+			String[] arrChild = temp.split(",");
+			for (String s : arrChild) {
+				fallbacks.put(s.toLowerCase(), parentCharSet);
+			}
+		}
+		this.charSetFallbacks = Collections.unmodifiableMap(fallbacks);
+		this.charSetMap = new Properties();
+		this.charSetMap.putAll(fallbacks);
+		this.imageFileFormats = appConfig.getStringArray("appSettings.imageFileFormats");
+	}
+
+	private static final class InstanceHolder {
+		private static final AppConfig INSTANCE = new AppConfig();
 	}
 
 	public static AppConfig getInstance() {
-		if (objectInstance == null) {
-			synchronized (AppConfig.class) {
-				if (objectInstance == null) {
-					objectInstance = new AppConfig();
-				}
-			}
-		}
-		return objectInstance;
+		return InstanceHolder.INSTANCE;
 	}
 
+	/**
+	 * @return charset fallbacks keyed by lower case charset name; lookups on
+	 * this table are synchronized, {@link #getFallbackCharset(String)} is not
+	 */
 	public Properties getCharSetMap() {
-		if (charSetMap == null) {
-			synchronized (AppConfig.class) {
-				if (charSetMap == null) {
-					charSetMap = new Properties();
-					String[] arrStr = appConfig.getStringArray("appSettings.charSetFallback");
-					for (String value : arrStr) {
-						String temp = value;
-						String parentCharSet = temp.substring(temp.indexOf(':') + 1);
-						temp = temp.substring(0, temp.indexOf(':'));
-						String[] arrChild = temp.split(",");
-						for (String s : arrChild) {
-							charSetMap.setProperty(s.toLowerCase(), parentCharSet);
-						}
-					}
-				}
-			}
-		}
 		return charSetMap;
 	}
 
+	/**
+	 * @return the charset configured as fallback for the given one, the given charset if there is none
+	 */
+	public String getFallbackCharset(String charSet) {
+		String fallbackCharSet = charSetFallbacks.get(charSet.toLowerCase());
+		return fallbackCharSet == null ? charSet : fallbackCharSet;
+	}
+
 	public boolean isImageFormat(String fileName) {
 		if (fileName != null && !fileName.isEmpty()) {
-			String[] arrImageFormat = appConfig.getStringArray("appSettings.imageFileFormats");
-			return FilenameUtils.isExtension(fileName.toLowerCase(), arrImageFormat);
+			return FilenameUtils.isExtension(fileName.toLowerCase(), imageFileFormats);
 		}
 		return false;
 	}	
@@ -0,0 +1,359 @@
+package tech.blueglacier.configuration;
+
+import org.apache.james.mime4j.codec.DecodeMonitor;
+import org.apache.james.mime4j.stream.MimeConfig;
+import tech.blueglacier.classification.PartClassifier;
+import tech.blueglacier.classification.PartFilter;
+import tech.blueglacier.email.InlineImageUrlResolver;
+import tech.blueglacier.storage.DefaultStorageStrategy;
+import tech.blueglacier.storage.StorageStrategy;
+
+/**
+ * Immutable set of options controlling how an email is parsed. A profile is
+ * meant to be built once and shared by any number of concurrent parses.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * ParseProfile profile = ParseProfile.custom()
+ *         .setMaxLineLen(-1)
+ *         .setMaxHeaderLen(-1)
+ *         .setStorageStrategy(new PartTypeStorageStrategy())
+ *         .build();
+ * Email email = new EmailParseManager(mailIn, profile).getParsedEmail();
+ * </pre>
+ */
+public final class ParseProfile {
+
+    public static final ParseProfile DEFAULT = new Builder().build();
+
+    private final MimeConfig mimeConfig;
+    private final DecodeMonitor decodeMonitor;
+    private final StorageStrategy storageStrategy;
+    private final ContentDecoding contentDecoding;
+    private final PartClassifier partClassifier;
+    private final boolean inlineImagesInHtmlBody;
+    private final InlineImageUrlResolver inlineImageUrlResolver;
+    private final boolean removeUnidentifiedParts;
+    private final boolean headersOnly;
+    private final PartFilter partFilter;
+    private final long maxDecodedPartSize;
+    private final int maxNestedMessageDepth;
+    private final boolean sourceReferences;
+
+    private ParseProfile(Builder builder) {
+        this.mimeConfig = builder.mimeConfig.build();
+        this.decodeMonitor = builder.decodeMonitor;
+        this.storageStrategy = builder.storageStrategy;
+        this.contentDecoding = builder.contentDecoding;
+        this.partClassifier = builder.partClassifier;
+        this.inlineImagesInHtmlBody = builder.inlineImagesInHtmlBody;
+        this.inlineImageUrlResolver = builder.inlineImageUrlResolver;
+        this.removeUnidentifiedParts = builder.removeUnidentifiedParts;
+        this.headersOnly = builder.headersOnly;
+        this.partFilter = builder.partFilter;
+        this.maxDecodedPartSize = builder.maxDecodedPartSize;
+        this.maxNestedMessageDepth = builder.maxNestedMessageDepth;
+        this.sourceReferences = builder.sourceReferences;
+    }
+
+    public MimeConfig getMimeConfig() {
+        return mimeConfig;
+    }
+
+    public DecodeMonitor getDecodeMonitor() {
+        return decodeMonitor;
+    }
+
+    public StorageStrategy getStorageStrategy() {
+        return storageStrategy;
+    }
+
+    public ContentDecoding getContentDecoding() {
+        return contentDecoding;
+    }
+
+    public PartClassifier getPartClassifier() {
+        return partClassifier;
+    }
+
+    /**
+     * @return whether <code>cid:</code> references to image attachments are
+     * rewritten in the html body.
+     */
+    public boolean isInlineImagesInHtmlBody() {
+        return inlineImagesInHtmlBody;
+    }
+
+    /**
+     * @return resolver for the urls <code>cid:</code> references are rewritten
+     * to, keeping the images as attachments; <code>null</code> when images are
+     * embedded as base64 data uris.
+     */
+    public InlineImageUrlResolver getInlineImageUrlResolver() {
+        return inlineImageUrlResolver;
+    }
+
+    /**
+     * @return whether parts carrying no file name are removed from the attachments.
+     */
+    public boolean isRemoveUnidentifiedParts() {
+        return removeUnidentifiedParts;
+    }
+
+    /**
+     * @return whether parsing stops after the top level header block, leaving
+     * the email without any body or attachment.
+     */
+    public boolean isHeadersOnly() {
+        return headersOnly;
+    }
+
+    public PartFilter getPartFilter() {
+        return partFilter;
+    }
+
+    /**
+     * @return maximum decoded size in bytes of a part kept as attachment, -1 if unlimited
+     */
+    public long getMaxDecodedPartSize() {
+        return maxDecodedPartSize;
+    }
+
+    /**
+     * @return how many levels of attached messages may still be parsed into child emails
+     */
+    public int getMaxNestedMessageDepth() {
+        return maxNestedMessageDepth;
+    }
+
+    /**
+     * @return whether parts of buffered or mapped messages are kept as
+     * references to their still encoded bytes in the message.
+     */
+    public boolean isSourceReferences() {
+        return sourceReferences;
+    }
+
+    public static Builder custom() {
+        return new Builder();
+    }
+
+    public static Builder copy(ParseProfile other) {
+        return new Builder()
+                .setMimeConfig(other.mimeConfig)
+                .setDecodeMonitor(other.decodeMonitor)
+                .setStorageStrategy(other.storageStrategy)
+                .setContentDecoding(other.contentDecoding)
+                .setPartClassifier(other.partClassifier)
+                .setInlineImagesInHtmlBody(other.inlineImagesInHtmlBody)
+                .setInlineImageUrlResolver(other.inlineImageUrlResolver)
+                .setRemoveUnidentifiedParts(other.removeUnidentifiedParts)
+                .setHeadersOnly(other.headersOnly)
+                .setPartFilter(other.partFilter)
+                .setMaxDecodedPartSize(other.maxDecodedPartSize)
+                .setMaxNestedMessageDepth(other.maxNestedMessageDepth)
+                .setSourceReferences(other.sourceReferences);
+    }
+
+    public enum ContentDecoding {
+        /**
+         * Parts are stored with their content transfer encoding removed.
+         */
+        DECODED,
+        /**
+         * Parts are stored exactly as found in the message. Inline images are
+         * not rewritten into the html body and remain attachments.
+         */
+        NONE,
+        /**
+         * Parts are stored exactly as found in the message and decoded only when
+         * read through {@link tech.blueglacier.email.Attachment#getIs()}; decoded
+         * sizes are worked out on first request.
+         */
+        DEFERRED
+    }
+
+    public static final class Builder {
+
+        private MimeConfig.Builder mimeConfig;
+        private DecodeMonitor decodeMonitor;
+        private StorageStrategy storageStrategy;
+        private ContentDecoding contentDecoding;
+        private PartClassifier partClassifier;
+        private boolean inlineImagesInHtmlBody;
+        private InlineImageUrlResolver inlineImageUrlResolver;
+        private boolean removeUnidentifiedParts;
+        private boolean headersOnly;
+        private PartFilter partFilter;
+        private long maxDecodedPartSize;
+        private int maxNestedMessageDepth;
+        private boolean sourceReferences;
+
+        private Builder() {
+            mimeConfig = MimeConfig.copy(MimeConfig.DEFAULT);
+            decodeMonitor = DecodeMonitor.SILENT;
+            storageStrategy = new DefaultStorageStrategy();
+            contentDecoding = ContentDecoding.DECODED;
+            partClassifier = PartClassifier.DEFAULT;
+            inlineImagesInHtmlBody = true;
+            removeUnidentifiedParts = true;
+            partFilter = PartFilter.ACCEPT_ALL;
+            maxDecodedPartSize = -1;
+            maxNestedMessageDepth = 8;
+        }
+
+        public Builder setMimeConfig(MimeConfig mimeConfig) {
+            if (mimeConfig == null) {
+                throw new IllegalArgumentException();
+            }
+            this.mimeConfig = MimeConfig.copy(mimeConfig);
+            return this;
+        }
+
+        /**
+         * @see MimeConfig.Builder#setMaxLineLen(int)
+         */
+        public Builder setMaxLineLen(int maxLineLen) {
+            mimeConfig.setMaxLineLen(maxLineLen);
+            return this;
+        }
+
+        /**
+         * @see MimeConfig.Builder#setMaxHeaderLen(int)
+         */
+        public Builder setMaxHeaderLen(int maxHeaderLen) {
+            mimeConfig.setMaxHeaderLen(maxHeaderLen);
+            return this;
+        }
+
+        /**
+         * @see MimeConfig.Builder#setMaxHeaderCount(int)
+         */
+        public Builder setMaxHeaderCount(int maxHeaderCount) {
+            mimeConfig.setMaxHeaderCount(maxHeaderCount);
+            return this;
+        }
+
+        /**
+         * @see MimeConfig.Builder#setMaxContentLen(long)
+         */
+        public Builder setMaxContentLen(long maxContentLen) {
+            mimeConfig.setMaxContentLen(maxContentLen);
+            return this;
+        }
+
+        public Builder setDecodeMonitor(DecodeMonitor decodeMonitor) {
+            if (decodeMonitor == null) {
+                throw new IllegalArgumentException();
+            }
+            this.decodeMonitor = decodeMonitor;
+            return this;
+        }
+
+        public Builder setStorageStrategy(StorageStrategy storageStrategy) {
+            if (storageStrategy == null) {
+                throw new IllegalArgumentException();
+            }
+            this.storageStrategy = storageStrategy;
+            return this;
+        }
+
+        public Builder setContentDecoding(ContentDecoding contentDecoding) {
+            if (contentDecoding == null) {
+                throw new IllegalArgumentException();
+            }
+            this.contentDecoding = contentDecoding;
+            return this;
+        }
+
+        public Builder setPartClassifier(PartClassifier partClassifier) {
+            if (partClassifier == null) {
+                throw new IllegalArgumentException();
+            }
+            this.partClassifier = partClassifier;
+            return this;
+        }
+
+        public Builder setInlineImagesInHtmlBody(boolean inlineImagesInHtmlBody) {
+            this.inlineImagesInHtmlBody = inlineImagesInHtmlBody;
+            return this;
+        }
+
+        /**
+         * Rewrites <code>cid:</code> references to the urls supplied by the given
+         * resolver instead of embedding the images, which then stay available
+         * through the attachments. Passing <code>null</code> restores embedding.
+         */
+        public Builder setInlineImageUrlResolver(InlineImageUrlResolver inlineImageUrlResolver) {
+            this.inlineImageUrlResolver = inlineImageUrlResolver;
+            return this;
+        }
+
+        public Builder setRemoveUnidentifiedParts(boolean removeUnidentifiedParts) {
+            this.removeUnidentifiedParts = removeUnidentifiedParts;
+            return this;
+        }
+
+        /**
+         * Reads only the header block of the message; nothing after it is
+         * decoded or stored. Meant for stages which only look at the headers.
+         */
+        public Builder setHeadersOnly(boolean headersOnly) {
+            this.headersOnly = headersOnly;
+            return this;
+        }
+
+        /**
+         * Parts rejected by the filter are skipped without being decoded or
+         * stored and are listed by {@link tech.blueglacier.email.Email#getSkippedParts()}.
+         */
+        public Builder setPartFilter(PartFilter partFilter) {
+            if (partFilter == null) {
+                throw new IllegalArgumentException();
+            }
+            this.partFilter = partFilter;
+            return this;
+        }
+
+        /**
+         * Parts kept as attachments are dropped, and listed as skipped, once their
+         * decoded content grows beyond this size; -1, the default, keeps all.
+         * Text bodies are always kept whole. With deferred decoding the stored,
+         * still encoded, size is compared instead.
+         */
+        public Builder setMaxDecodedPartSize(long maxDecodedPartSize) {
+            this.maxDecodedPartSize = maxDecodedPartSize;
+            return this;
+        }
+
+        /**
+         * Limits how deep a chain of attached messages can be opened through
+         * {@link tech.blueglacier.email.MessageAttachment#getEmail()}; 0 keeps
+         * attached messages as raw attachments only. Defaults to 8.
+         */
+        public Builder setMaxNestedMessageDepth(int maxNestedMessageDepth) {
+            if (maxNestedMessageDepth < 0) {
+                throw new IllegalArgumentException();
+            }
+            this.maxNestedMessageDepth = maxNestedMessageDepth;
+            return this;
+        }
+
+        /**
+         * When parsing from a buffer or mapped file, keeps every part as a
+         * reference to its byte range in the message, transfer encoding
+         * included, instead of copying it; parts are decoded whenever read, as
+         * with {@link ContentDecoding#DEFERRED}, which decoding is switched to
+         * from {@link ContentDecoding#DECODED}. Has no effect on streams.
+         */
+        public Builder setSourceReferences(boolean sourceReferences) {
+            this.sourceReferences = sourceReferences;
+            return this;
+        }
+
+        public ParseProfile build() {
+            return new ParseProfile(this);
+        }
+    }
+}
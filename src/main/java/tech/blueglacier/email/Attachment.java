@@ -1,13 +1,31 @@
 package tech.blueglacier.email;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang.StringUtils;
+import org.apache.james.mime4j.codec.DecodeMonitor;
+import org.apache.james.mime4j.message.MaximalBodyDescriptor;
+import org.apache.james.mime4j.storage.DefaultStorageProvider;
 import org.apache.james.mime4j.storage.Storage;
+import org.apache.james.mime4j.storage.StorageOutputStream;
 import org.apache.james.mime4j.storage.StorageProvider;
 import org.apache.james.mime4j.stream.BodyDescriptor;
-import tech.blueglacier.storage.AbstractStorageProvider;
-import tech.blueglacier.storage.TempFileStorageProvider;
+import tech.blueglacier.classification.PartClassification;
+import tech.blueglacier.classification.PartClassifier;
+import tech.blueglacier.codec.CodecUtil;
+import tech.blueglacier.storage.AppendableStorage;
+import tech.blueglacier.storage.DiscardableStorageOutputStream;
+import tech.blueglacier.storage.RangedStorage;
+import tech.blueglacier.storage.TransferableStorage;
+import tech.blueglacier.storage.ViewableStorage;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public abstract class Attachment {
 
@@ -19,6 +37,8 @@ public abstract class Attachment {
         return bd;
     }
 
+    private final StorageProvider storageProvider;
+
     private Storage storage;
 
     public InputStream getIs() {
@@ -28,33 +48,255 @@ public abstract class Attachment {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        if (transferDecodeMonitor != null) {
+            is = CodecUtil.decode(is, bd.getTransferEncoding(), transferDecodeMonitor);
+        }
         return is;
     }
 
+    /**
+     * @return the decoded content as a read-only buffer; in-memory content and
+     * temporary files are viewed without copying, the latter through a shared
+     * memory mapping, anything else is read into a new buffer
+     */
+    public ByteBuffer getByteBuffer() {
+        try {
+            if (transferDecodeMonitor == null && storage instanceof ViewableStorage) {
+                return ((ViewableStorage) storage).getByteBuffer();
+            }
+            try (InputStream is = getIs()) {
+                return ByteBuffer.wrap(IOUtils.toByteArray(is)).asReadOnlyBuffer();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads part of the decoded content, such as for answering a range
+     * request. Storages supporting it start reading right at the offset;
+     * otherwise, and whenever decoding is deferred, the content before the
+     * offset is read and skipped.
+     *
+     * @param offset first byte to read
+     * @param length maximum number of bytes to read; the stream ends early at the end of the content
+     */
+    public InputStream openRange(long offset, long length) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException();
+        }
+        try {
+            if (transferDecodeMonitor == null && storage instanceof RangedStorage) {
+                return ((RangedStorage) storage).getInputStream(offset, length);
+            }
+            return CodecUtil.range(getIs(), offset, length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the decoded content to the given channel, which is left open.
+     * Storages supporting it, such as temporary files, hand the content to
+     * the channel directly; otherwise it is copied through a stream.
+     *
+     * @return number of bytes written
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        if (transferDecodeMonitor == null && storage instanceof TransferableStorage) {
+            return ((TransferableStorage) storage).transferTo(target);
+        }
+        try (InputStream is = getIs()) {
+            return CodecUtil.copy(is, Channels.newOutputStream(target));
+        }
+    }
+
+    /**
+     * Saves the decoded content to a new file. Stored content is copied by
+     * the kernel where possible, without passing through the heap.
+     *
+     * @param target path of the file to create, which must not exist yet
+     */
+    public void saveTo(Path target) throws IOException {
+        if (transferDecodeMonitor == null && storage instanceof TransferableStorage) {
+            ((TransferableStorage) storage).saveTo(target);
+            return;
+        }
+        try (InputStream is = getIs()) {
+            Files.copy(is, target);
+        }
+    }
+
     private int attachmentSize;
 
+    // Set while the storage still holds the content in its transfer encoding
+    private DecodeMonitor transferDecodeMonitor;
+
+    private int decodedSize;
+
+    private boolean referencedInHtmlBody;
+
+    private PartClassification classification;
+
+    /**
+     * @return decoded size of the content; with deferred decoding it is worked out on first call
+     */
     public int getAttachmentSize() {
+        if (transferDecodeMonitor != null) {
+            if (decodedSize < 0) {
+                try (InputStream is = getIs()) {
+                    decodedSize = CodecUtil.copy(is, NullOutputStream.NULL_OUTPUT_STREAM);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return decodedSize;
+        }
         return attachmentSize;
     }
 
+    /**
+     * @return number of bytes held by the storage, transfer encoded if decoding is deferred
+     */
+    int getStoredSize() {
+        return attachmentSize;
+    }
+
+    /**
+     * Marks the stored content as still transfer encoded, to be decoded whenever it is read.
+     */
+    void deferDecoding(DecodeMonitor monitor) {
+        this.transferDecodeMonitor = monitor;
+        this.decodedSize = -1;
+    }
+
+    /**
+     * @return content id of the part without angle brackets, <code>null</code> if absent
+     */
+    public String getContentId() {
+        if (bd instanceof MaximalBodyDescriptor) {
+            String contentId = ((MaximalBodyDescriptor) bd).getContentId();
+            contentId = StringUtils.stripStart(contentId, "<");
+            contentId = StringUtils.stripEnd(contentId, ">");
+            return contentId;
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the html body refers to this attachment by url instead of embedding it
+     */
+    public boolean isReferencedInHtmlBody() {
+        return referencedInHtmlBody;
+    }
+
+    void setReferencedInHtmlBody(boolean referencedInHtmlBody) {
+        this.referencedInHtmlBody = referencedInHtmlBody;
+    }
+
+    /**
+     * @return role and decoded file name of the part, worked out once and cached
+     */
+    public PartClassification getClassification() {
+        if (classification == null) {
+            classification = PartClassifier.DEFAULT.classify(bd);
+        }
+        return classification;
+    }
+
+    void setClassification(PartClassification classification) {
+        this.classification = classification;
+    }
+
+    public StorageProvider getStorageProvider() {
+        return storageProvider;
+    }
+
     public void setIs(InputStream is) {
-        StorageProvider storageProvider = new TempFileStorageProvider();
         try {
-            storage = storageProvider.store(is);
-            if (storageProvider instanceof AbstractStorageProvider) {
-                attachmentSize = ((AbstractStorageProvider) storageProvider).getTotalBytesTransferred();
+            // Counting here rather than in the provider keeps shared providers free of per part state
+            StorageOutputStream out = storageProvider.createStorageOutputStream();
+            try {
+                attachmentSize = CodecUtil.copy(is, out);
+                storage = out.toStorage();
+            } catch (IOException | RuntimeException e) {
+                DiscardableStorageOutputStream.discardQuietly(out);
+                throw e;
+            }
+            transferDecodeMonitor = null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Adds the content of the given stream to the end of this part. Appendable
+     * storages grow in place, any other storage is copied once into a new one.
+     */
+    void append(InputStream is) {
+        try {
+            if (transferDecodeMonitor != null) {
+                // Encoded content cannot simply be concatenated, so it is decoded once first
+                try (InputStream decoded = getIs()) {
+                    replaceContent(decoded);
+                }
+            }
+            if (storage instanceof AppendableStorage) {
+                attachmentSize += ((AppendableStorage) storage).append(is);
             } else {
-                attachmentSize = 0;
+                try (InputStream previous = storage.getInputStream()) {
+                    replaceContent(previous, is);
+                }
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    // Copies the given streams one after the other into a new storage which replaces the current one
+    private void replaceContent(InputStream... contents) throws IOException {
+        StorageOutputStream out = storageProvider.createStorageOutputStream();
+        try {
+            int size = 0;
+            for (InputStream content : contents) {
+                size += CodecUtil.copy(content, out);
+            }
+            replaceStorage(out.toStorage(), size);
+        } catch (IOException | RuntimeException e) {
+            DiscardableStorageOutputStream.discardQuietly(out);
+            throw e;
+        }
+    }
+
+    void replaceStorage(Storage storage, int attachmentSize) {
+        Storage previousStorage = this.storage;
+        this.storage = storage;
+        this.attachmentSize = attachmentSize;
+        this.transferDecodeMonitor = null;
+        if (previousStorage != null) {
+            previousStorage.delete();
+        }
+    }
+
+    /**
+     * Deletes the stored content, freeing its memory, files and memory budget.
+     * The attachment cannot be read any more afterwards.
+     */
+    public void delete() {
+        if (storage != null) {
+            storage.delete();
+        }
+    }
+
     public Attachment(BodyDescriptor bd, InputStream is) {
+        this(bd, is, DefaultStorageProvider.getInstance());
+    }
+
+    public Attachment(BodyDescriptor bd, InputStream is, StorageProvider storageProvider) {
         this.bd = bd;
+        this.storageProvider = storageProvider;
         attachmentSize = 0;
         setIs(is);
     }
 
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package tech.blueglacier.email;
 
+import org.apache.james.mime4j.storage.StorageProvider;
 import org.apache.james.mime4j.stream.BodyDescriptor;
 
 import java.io.InputStream;
@@ -10,6 +11,10 @@ public class CalendarBody extends Attachment {
 		super(bd, is);
 	}
 
+	public CalendarBody(BodyDescriptor bd, InputStream is, StorageProvider storageProvider) {
+		super(bd, is, storageProvider);
+	}
+
 	@Override
 	public String getAttachmentName() {
 		return "calendarBody.ics";
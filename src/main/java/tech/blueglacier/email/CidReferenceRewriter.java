@@ -0,0 +1,119 @@
+package tech.blueglacier.email;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Rewrites <code>cid:</code> references of a html body in a single pass. Every
+ * reference whose content id is known is handed to
+ * {@link #writeReplacement(Attachment, String, Writer)}, all other characters
+ * are copied unchanged. When content ids share a common prefix the longest
+ * matching one wins.
+ */
+abstract class CidReferenceRewriter {
+
+    private static final String CID_PREFIX = "cid:";
+
+    private final TreeMap<String, Attachment> attachmentsByContentId;
+    private final Set<Attachment> replacedAttachments;
+    private final int maxContentIdLength;
+
+    CidReferenceRewriter(Map<String, Attachment> attachmentsByContentId) {
+        this.attachmentsByContentId = new TreeMap<>(attachmentsByContentId);
+        this.replacedAttachments = new LinkedHashSet<>();
+        int maxLength = 0;
+        for (String contentId : attachmentsByContentId.keySet()) {
+            maxLength = Math.max(maxLength, contentId.length());
+        }
+        this.maxContentIdLength = maxLength;
+    }
+
+    /**
+     * Writes the replacement for a matched <code>cid:</code> reference.
+     *
+     * @return <code>false</code> if nothing was written and the reference is to be kept
+     */
+    protected abstract boolean writeReplacement(Attachment attachment, String contentId, Writer out) throws IOException;
+
+    /**
+     * @return attachments referenced at least once, in order of first reference
+     */
+    Set<Attachment> getReplacedAttachments() {
+        return replacedAttachments;
+    }
+
+    void rewrite(Reader source, Writer out) throws IOException {
+        PushbackReader in = new PushbackReader(source, CID_PREFIX.length() + maxContentIdLength + 1);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == CID_PREFIX.charAt(0) && readCidPrefix(in)) {
+                String contentId = readContentId(in);
+                if (contentId != null) {
+                    Attachment attachment = attachmentsByContentId.get(contentId);
+                    if (writeReplacement(attachment, contentId, out)) {
+                        replacedAttachments.add(attachment);
+                    } else {
+                        out.write(CID_PREFIX);
+                        out.write(contentId);
+                    }
+                } else {
+                    out.write(CID_PREFIX);
+                }
+            } else {
+                out.write(c);
+            }
+        }
+        out.flush();
+    }
+
+    private boolean readCidPrefix(PushbackReader in) throws IOException {
+        char[] read = new char[CID_PREFIX.length() - 1];
+        int count = 0;
+        while (count < read.length) {
+            int c = in.read();
+            if (c == -1) {
+                break;
+            }
+            read[count++] = (char) c;
+            if (c != CID_PREFIX.charAt(count)) {
+                break;
+            }
+        }
+        if (count == read.length && read[count - 1] == CID_PREFIX.charAt(count)) {
+            return true;
+        }
+        in.unread(read, 0, count);
+        return false;
+    }
+
+    // Returns the longest known content id at the current position, leaving any further characters unread
+    private String readContentId(PushbackReader in) throws IOException {
+        StringBuilder token = new StringBuilder();
+        String match = null;
+        int c;
+        while ((c = in.read()) != -1) {
+            token.append((char) c);
+            String candidate = token.toString();
+            if (attachmentsByContentId.containsKey(candidate)) {
+                match = candidate;
+            }
+            String ceilingKey = attachmentsByContentId.ceilingKey(candidate);
+            if (ceilingKey == null || !ceilingKey.startsWith(candidate)) {
+                break;
+            }
+        }
+        int matchLength = match == null ? 0 : match.length();
+        if (token.length() > matchLength) {
+            char[] unmatched = new char[token.length() - matchLength];
+            token.getChars(matchLength, token.length(), unmatched, 0);
+            in.unread(unmatched);
+        }
+        return match;
+    }
+}
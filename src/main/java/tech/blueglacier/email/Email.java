@@ -1,31 +1,51 @@
 package tech.blueglacier.email;
 
 import com.google.common.net.MediaType;
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.james.mime4j.codec.DecodeMonitor;
 import org.apache.james.mime4j.dom.Header;
+import org.apache.james.mime4j.dom.address.AddressList;
+import org.apache.james.mime4j.dom.address.MailboxList;
+import org.apache.james.mime4j.field.AddressListFieldLenientImpl;
+import org.apache.james.mime4j.field.DateTimeFieldLenientImpl;
+import org.apache.james.mime4j.field.MailboxListFieldLenientImpl;
 import org.apache.james.mime4j.message.HeaderImpl;
 import org.apache.james.mime4j.message.MaximalBodyDescriptor;
+import org.apache.james.mime4j.storage.StorageOutputStream;
+import org.apache.james.mime4j.storage.StorageProvider;
 import org.apache.james.mime4j.stream.BodyDescriptor;
 import org.apache.james.mime4j.stream.Field;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import tech.blueglacier.classification.PartClassification;
+import tech.blueglacier.classification.PartRole;
+import tech.blueglacier.codec.CodecUtil;
 import tech.blueglacier.configuration.AppConfig;
+import tech.blueglacier.configuration.ParseProfile;
+import tech.blueglacier.configuration.ParseProfile.ContentDecoding;
+import tech.blueglacier.storage.DiscardableStorageOutputStream;
+import tech.blueglacier.storage.StorageStrategy;
 import tech.blueglacier.util.Common;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.function.Function;
 
 /**
  * Contains core logic to recreate a tech.blueglacier.email as seen and perceived by a general user.
+ * Closing it deletes the stored content of all its parts.
  */
-public class Email {
+public class Email implements AutoCloseable {
 
     private final Header header;
     private final ArrayList<Attachment> attachments;
@@ -34,30 +54,72 @@ public class Email {
     private Attachment calendarBody;
     private boolean attachmentReplacedInHtmlBody;
     private final Stack<MultipartType> multipartStack;
+    private final ParseProfile parseProfile;
 
     //Added to distinguish between tech.blueglacier.email attached within another tech.blueglacier.email case
     private final Stack<EmailMessageType> emailMessageStack;
     private int decodedEmailSize;
+    private int discardedPartsSize;
     private int emailSize;
-
+    // Parts as found in the message, and the size of those changed since, while the decoded size is deferred
+    private List<Attachment> sizedParts;
+    private int changedPartsSize;
+    private final List<SkippedPart> skippedParts;
+    private int partPosition;
+    private final Map<String, DecodedField> decodedFields;
+
+    /**
+     * @return decoded size of the parts kept; with deferred decoding it is worked out on first call
+     */
     public int getEmailSize() {
+        if (emailSize < 0) {
+            emailSize = setEmailSize();
+        }
         return emailSize;
     }
 
+    /**
+     * @return decoded size of all parts as found in the message; with deferred
+     * decoding it is worked out on first call
+     */
     public int getDecodedEmailSize() {
+        if (decodedEmailSize < 0) {
+            if (sizedParts == null) {
+                decodedEmailSize = setEmailSize() + discardedPartsSize;
+            } else {
+                decodedEmailSize = changedPartsSize + discardedPartsSize;
+                for (Attachment part : sizedParts) {
+                    decodedEmailSize += part.getAttachmentSize();
+                }
+            }
+        }
         return decodedEmailSize;
     }
 
     final Logger LOGGER = LoggerFactory.getLogger(Email.class);
 
     public Email() {
+        this(ParseProfile.DEFAULT);
+    }
+
+    public Email(StorageStrategy storageStrategy) {
+        this(ParseProfile.copy(ParseProfile.DEFAULT).setStorageStrategy(storageStrategy).build());
+    }
+
+    public Email(ParseProfile parseProfile) {
+        this.parseProfile = parseProfile;
         this.header = new HeaderImpl();
         this.attachments = new ArrayList<>();
         this.attachmentReplacedInHtmlBody = false;
         this.multipartStack = new Stack<>();
         this.emailMessageStack = new Stack<>();
-        this.decodedEmailSize = 0;
-        this.emailSize = 0;
+        // Negative sizes are computed on demand
+        this.decodedEmailSize = isDecodingDeferred() ? -1 : 0;
+        this.discardedPartsSize = 0;
+        this.emailSize = isDecodingDeferred() ? -1 : 0;
+        this.skippedParts = new ArrayList<>();
+        this.partPosition = 0;
+        this.decodedFields = new HashMap<>();
     }
 
     public Header getHeader() {
@@ -70,26 +132,35 @@ public class Email {
 
     public void fillEmailContents(BodyDescriptor bd, InputStream is) {
         try {
-            if (addPlainTextEmailBody(bd, is)) {
+            PartClassification classification = parseProfile.getPartClassifier().classify(bd);
+            if (!parseProfile.getPartFilter().accept(bd, classification, partPosition++)) {
+                // Leaving the stream unread lets the parser skip the part without decoding it
+                skippedParts.add(new SkippedPart(bd, classification, SkippedPart.Reason.FILTERED));
                 return;
             }
-            if (addHTMLEmailBody(bd, is)) {
+            if (addAttachedMessage(bd, is, classification)) {
                 return;
             }
-            if (addCalendar(bd, is)) {
+            if (addPlainTextEmailBody(bd, is, classification)) {
                 return;
             }
-            addAttachments(bd, is);
+            if (addHTMLEmailBody(bd, is, classification)) {
+                return;
+            }
+            if (addCalendar(bd, is, classification)) {
+                return;
+            }
+            addAttachments(bd, is, classification);
         } catch (IOException e) {
             LOGGER.error("fillEmailContents error " + e.getMessage());
         }
     }
 
-    private boolean addCalendar(BodyDescriptor bd, InputStream is) {
+    private boolean addCalendar(BodyDescriptor bd, InputStream is, PartClassification classification) {
         boolean isBodySet = false;
         if (calendarBody == null) {
-            if (isCalendarBody(bd)) {
-                calendarBody = new CalendarBody(bd, is);
+            if (isCalendarBody(classification)) {
+                calendarBody = prepared(new CalendarBody(bd, is, getStorageProvider(bd)), classification);
                 isBodySet = true;
             }
         }
@@ -97,11 +168,69 @@ public class Email {
         return isBodySet;
     }
 
-    private boolean shouldIgnore(BodyDescriptor bd, InputStream is) {
-        String attachmentName = Common.getAttachmentName(bd);
+    // Only seen when the parser does not recurse into attached messages, see EmailParseManager
+    private boolean addAttachedMessage(BodyDescriptor bd, InputStream is, PartClassification classification) {
+        if (!bd.getMimeType().equalsIgnoreCase("message/rfc822")) {
+            return false;
+        }
+        addAttachments(prepared(new MessageAttachment(bd, limited(is), getStorageProvider(bd), parseProfile), classification));
+        return true;
+    }
+
+    private boolean shouldIgnore(Attachment attachment) {
+        if (attachment instanceof MessageAttachment) {
+            return false;
+        }
+        String attachmentName = attachment.getClassification().getAttachmentName();
         return (attachmentName == null);
     }
 
+    // Parts which would only be removed again once the email is rearranged are not stored at all
+    private boolean isDiscarded(BodyDescriptor bd, PartClassification classification) {
+        return parseProfile.isRemoveUnidentifiedParts() && classification.getAttachmentName() == null
+                && !isInlineImageCandidate(bd);
+    }
+
+    private boolean isInlineImageCandidate(BodyDescriptor bd) {
+        return isInlineImageRewriting() && bd.getMediaType().equalsIgnoreCase("image")
+                && bd instanceof MaximalBodyDescriptor
+                && StringUtils.isNotEmpty(((MaximalBodyDescriptor) bd).getContentId());
+    }
+
+    private void discardPart(BodyDescriptor bd, InputStream is) throws IOException {
+        // Still counted so that the decoded email size covers every part
+        discardedPartsSize += CodecUtil.copy(decoded(bd, is), NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+
+    private <T extends Attachment> T prepared(T attachment, PartClassification classification) {
+        attachment.setClassification(classification);
+        if (isDecodingDeferred() && CodecUtil.isDecodingRequired(attachment.getBd().getTransferEncoding())) {
+            attachment.deferDecoding(parseProfile.getDecodeMonitor());
+        }
+        return attachment;
+    }
+
+    // Still encoded html and image content cannot be rewritten, the images then stay attachments
+    private boolean isInlineImageRewriting() {
+        return parseProfile.isInlineImagesInHtmlBody() && parseProfile.getContentDecoding() != ContentDecoding.NONE;
+    }
+
+    private boolean isDecodingDeferred() {
+        return parseProfile.getContentDecoding() == ContentDecoding.DEFERRED;
+    }
+
+    // Content appended to a body or merely counted has to be decoded right away
+    private InputStream decoded(BodyDescriptor bd, InputStream is) {
+        if (isDecodingDeferred()) {
+            return CodecUtil.decode(is, bd.getTransferEncoding(), parseProfile.getDecodeMonitor());
+        }
+        return is;
+    }
+
+    private StorageProvider getStorageProvider(BodyDescriptor bd) {
+        return parseProfile.getStorageStrategy().getStorageProvider(bd);
+    }
+
     public Stack<MultipartType> getMultipartStack() {
         return multipartStack;
     }
@@ -111,12 +240,78 @@ public class Email {
     }
 
     public String getEmailSubject() {
-        Field subjectField = header.getField("Subject");
-        if (subjectField != null) {
-            CustomUnstructuredFieldImpl decodedSubjectField = new CustomUnstructuredFieldImpl(subjectField, DecodeMonitor.SILENT);
-            return decodedSubjectField.getValue();
+        return getDecodedField("Subject", field -> new CustomUnstructuredFieldImpl(field, DecodeMonitor.SILENT).getValue());
+    }
+
+    /**
+     * @return parsed addresses of the <code>To</code> header, <code>null</code> if absent
+     */
+    public AddressList getToAddresses() {
+        return getDecodedAddressList("To");
+    }
+
+    /**
+     * @return parsed addresses of the <code>Cc</code> header, <code>null</code> if absent
+     */
+    public AddressList getCcAddresses() {
+        return getDecodedAddressList("Cc");
+    }
+
+    /**
+     * @return parsed addresses of the <code>Bcc</code> header, <code>null</code> if absent
+     */
+    public AddressList getBccAddresses() {
+        return getDecodedAddressList("Bcc");
+    }
+
+    /**
+     * @return parsed mailboxes of the <code>From</code> header, <code>null</code> if absent
+     */
+    public MailboxList getFromMailboxes() {
+        return getDecodedField("From", field -> MailboxListFieldLenientImpl.PARSER.parse(field, DecodeMonitor.SILENT).getMailboxList());
+    }
+
+    /**
+     * @return parsed <code>Date</code> header, <code>null</code> if absent or unparseable
+     */
+    public Date getSentDate() {
+        return getDecodedField("Date", field -> DateTimeFieldLenientImpl.PARSER.parse(field, DecodeMonitor.SILENT).getDate());
+    }
+
+    /**
+     * @return <code>Message-ID</code> header without surrounding white space, <code>null</code> if absent
+     */
+    public String getMessageId() {
+        return getDecodedField("Message-ID", field -> field.getBody().trim());
+    }
+
+    private AddressList getDecodedAddressList(String name) {
+        return getDecodedField(name, field -> AddressListFieldLenientImpl.PARSER.parse(field, DecodeMonitor.SILENT).getAddressList());
+    }
+
+    // Decoded values are kept per header name and recomputed only if a different field is found under that name
+    @SuppressWarnings("unchecked")
+    private <T> T getDecodedField(String name, Function<Field, T> decoder) {
+        Field field = header.getField(name);
+        if (field == null) {
+            return null;
+        }
+        DecodedField decodedField = decodedFields.get(name);
+        if (decodedField == null || decodedField.field != field) {
+            decodedField = new DecodedField(field, decoder.apply(field));
+            decodedFields.put(name, decodedField);
+        }
+        return (T) decodedField.value;
+    }
+
+    private static final class DecodedField {
+        private final Field field;
+        private final Object value;
+
+        private DecodedField(Field field, Object value) {
+            this.field = field;
+            this.value = value;
         }
-        return null;
     }
 
     public String getToEmailHeaderValue() {
@@ -151,29 +346,48 @@ public class Email {
         return null;
     }
 
-    private void addAttachments(BodyDescriptor bd, InputStream is) {
-        attachments.add(new EmailAttachment(bd, is));
+    private void addAttachments(BodyDescriptor bd, InputStream is, PartClassification classification) throws IOException {
+        if (isDiscarded(bd, classification)) {
+            discardPart(bd, is);
+            return;
+        }
+        addAttachments(prepared(new EmailAttachment(bd, limited(is), getStorageProvider(bd)), classification));
     }
 
     private void addAttachments(Attachment attachment) {
+        long maxDecodedPartSize = parseProfile.getMaxDecodedPartSize();
+        if (maxDecodedPartSize >= 0 && attachment.getStoredSize() > maxDecodedPartSize) {
+            attachment.delete();
+            skippedParts.add(new SkippedPart(attachment.getBd(), attachment.getClassification(), SkippedPart.Reason.TOO_LARGE));
+            return;
+        }
         attachments.add(attachment);
     }
 
-    private boolean addHTMLEmailBody(BodyDescriptor bd, InputStream is) throws IOException {
+    // Reads one byte beyond the maximum part size so that oversized parts can be told apart
+    private InputStream limited(InputStream is) {
+        long maxDecodedPartSize = parseProfile.getMaxDecodedPartSize();
+        if (maxDecodedPartSize < 0) {
+            return is;
+        }
+        return new BoundedInputStream(is, maxDecodedPartSize + 1);
+    }
+
+    private boolean addHTMLEmailBody(BodyDescriptor bd, InputStream is, PartClassification classification) throws IOException {
         boolean isBodySet = false;
         if (htmlEmailBody == null) {
-            if (isHTMLBody(bd)) {
-                htmlEmailBody = new HtmlEmailBody(bd, is);
+            if (isHTMLBody(classification)) {
+                htmlEmailBody = prepared(new HtmlEmailBody(bd, is, getStorageProvider(bd)), classification);
                 isBodySet = true;
             }
         } else {
-            if (isHTMLBody(bd)) {
+            if (isHTMLBody(classification)) {
                 if (multipartStack.peek().getBodyDescriptor().getMimeType().equalsIgnoreCase("multipart/mixed")) {
-                    InputStream mainInputStream;
-                    mainInputStream = concatInputStream(is, htmlEmailBody.getIs());
-                    htmlEmailBody.setIs(mainInputStream);
+                    htmlEmailBody.append(decoded(bd, is));
+                } else if (isDiscarded(bd, classification)) {
+                    discardPart(bd, is);
                 } else {
-                    addAttachments(new HtmlEmailBody(bd, is));
+                    addAttachments(prepared(new HtmlEmailBody(bd, limited(is), getStorageProvider(bd)), classification));
                 }
                 isBodySet = true;
             }
@@ -181,31 +395,29 @@ public class Email {
         return isBodySet;
     }
 
-    private boolean isHTMLBody(BodyDescriptor emailHTMLBodyDescriptor) {
-        String bodyName = Common.getAttachmentName(emailHTMLBodyDescriptor);
-        return (emailHTMLBodyDescriptor.getMimeType().equalsIgnoreCase("text/html") && bodyName == null);
+    private boolean isHTMLBody(PartClassification classification) {
+        return classification.getRole() == PartRole.HTML_BODY;
     }
 
-    private boolean isCalendarBody(BodyDescriptor emailCalendarBodyDescriptor) {
-        String bodyName = Common.getAttachmentName(emailCalendarBodyDescriptor);
-        return (emailCalendarBodyDescriptor.getMimeType().equalsIgnoreCase("text/calendar") && bodyName == null);
+    private boolean isCalendarBody(PartClassification classification) {
+        return classification.getRole() == PartRole.CALENDAR_BODY;
     }
 
-    private boolean addPlainTextEmailBody(BodyDescriptor bd, InputStream is) {
+    private boolean addPlainTextEmailBody(BodyDescriptor bd, InputStream is, PartClassification classification) throws IOException {
         boolean isBodySet = false;
         if (plainTextEmailBody == null) {
-            if (isPlainTextBody(bd)) {
-                plainTextEmailBody = new PlainTextEmailBody(bd, is);
+            if (isPlainTextBody(classification)) {
+                plainTextEmailBody = prepared(new PlainTextEmailBody(bd, is, getStorageProvider(bd)), classification);
                 isBodySet = true;
             }
         } else {
-            if (isPlainTextBody(bd)) {
+            if (isPlainTextBody(classification)) {
                 if (multipartStack.peek().getBodyDescriptor().getMimeType().equalsIgnoreCase("multipart/mixed")) {
-                    InputStream mainInputStream;
-                    mainInputStream = concatInputStream(is, plainTextEmailBody.getIs());
-                    plainTextEmailBody.setIs(mainInputStream);
+                    plainTextEmailBody.append(decoded(bd, is));
+                } else if (isDiscarded(bd, classification)) {
+                    discardPart(bd, is);
                 } else {
-                    addAttachments(new PlainTextEmailBody(bd, is));
+                    addAttachments(prepared(new PlainTextEmailBody(bd, limited(is), getStorageProvider(bd)), classification));
                 }
                 isBodySet = true;
             }
@@ -213,9 +425,15 @@ public class Email {
         return isBodySet;
     }
 
-    private boolean isPlainTextBody(BodyDescriptor emailPlainBodyDescriptor) {
-        String bodyName = Common.getAttachmentName(emailPlainBodyDescriptor);
-        return (emailPlainBodyDescriptor.getMimeType().equalsIgnoreCase("text/plain") && bodyName == null);
+    private boolean isPlainTextBody(PartClassification classification) {
+        return classification.getRole() == PartRole.PLAIN_TEXT_BODY;
+    }
+
+    /**
+     * @return parts left out by the part filter or the maximum part size, in message order
+     */
+    public List<SkippedPart> getSkippedParts() {
+        return skippedParts;
     }
 
     public List<Attachment> getAttachments() {
@@ -230,11 +448,31 @@ public class Email {
         return calendarBody;
     }
 
+    /**
+     * Deletes the stored content of the bodies and all attachments, freeing
+     * their memory, files and memory budget.
+     */
+    public void close() {
+        for (Attachment part : getParts()) {
+            part.delete();
+        }
+    }
+
     public void reArrangeEmail() {
-        decodedEmailSize = setEmailSize();
-        replaceInlineImageAttachmentsInHtmlBody();
-        removeUnidentifiedMimePartsForAttachment();
-        emailSize = setEmailSize();
+        if (!isDecodingDeferred()) {
+            decodedEmailSize = setEmailSize() + discardedPartsSize;
+        } else if (decodedEmailSize < 0) {
+            sizedParts = getParts();
+        }
+        if (isInlineImageRewriting()) {
+            replaceInlineImageAttachmentsInHtmlBody();
+        }
+        if (parseProfile.isRemoveUnidentifiedParts()) {
+            removeUnidentifiedMimePartsForAttachment();
+        }
+        if (!isDecodingDeferred()) {
+            emailSize = setEmailSize();
+        }
     }
 
     private int setEmailSize() {
@@ -257,50 +495,145 @@ public class Email {
         return emailSize;
     }
 
+    private List<Attachment> getParts() {
+        List<Attachment> parts = new ArrayList<>();
+        for (Attachment body : new Attachment[]{htmlEmailBody, plainTextEmailBody, calendarBody}) {
+            if (body != null) {
+                parts.add(body);
+            }
+        }
+        parts.addAll(attachments);
+        return parts;
+    }
+
+    // Measures a part as found in the message before it is rewritten or removed
+    private void changingPart(Attachment part) {
+        if (sizedParts != null && sizedParts.remove(part)) {
+            changedPartsSize += part.getAttachmentSize();
+        }
+    }
+
     private void removeUnidentifiedMimePartsForAttachment() {
         List<Attachment> removeList = new ArrayList<>();
         for (Attachment attachment : attachments) {
-            if (shouldIgnore(attachment.bd, attachment.getIs())) {
+            // Images the html body refers to by url have to stay reachable even without a name
+            if (!attachment.isReferencedInHtmlBody() && shouldIgnore(attachment)) {
                 removeList.add(attachment);
             }
         }
         removeAttachments(removeList);
+        for (Attachment attachment : removeList) {
+            changingPart(attachment);
+            attachment.delete();
+        }
     }
 
     private void replaceInlineImageAttachmentsInHtmlBody() {
         if (htmlEmailBody != null) {
-            String strHTMLBody = getHtmlBodyString();
+            Map<String, Attachment> inlineImages = getInlineImagesByContentId();
+            if (!inlineImages.isEmpty()) {
+                InlineImageUrlResolver urlResolver = parseProfile.getInlineImageUrlResolver();
+                if (urlResolver != null) {
+                    referenceInlineImages(inlineImages, urlResolver);
+                } else {
+                    embedInlineImages(inlineImages);
+                }
+            }
+        }
+    }
+
+    private void embedInlineImages(Map<String, Attachment> inlineImages) {
+        CidReferenceRewriter rewriter = new DataUriRewriter(inlineImages);
+        rewriteHtmlBody(rewriter);
+
+        List<Attachment> removalList = new ArrayList<>(rewriter.getReplacedAttachments());
+        if (!removalList.isEmpty()) {
+            attachmentReplacedInHtmlBody = true;
+        }
+        removeAttachments(removalList);
+        for (Attachment attachment : removalList) {
+            changingPart(attachment);
+            attachment.delete();
+        }
+    }
 
-            List<Attachment> removalList = new ArrayList<>();
+    private void referenceInlineImages(Map<String, Attachment> inlineImages, InlineImageUrlResolver urlResolver) {
+        CidReferenceRewriter rewriter = new UrlReferenceRewriter(inlineImages, urlResolver);
+        rewriteHtmlBody(rewriter);
 
-            for (Attachment attachment : attachments) {
-                if (isImage(attachment)) {
-                    String imageMimeType = getImageMimeType(attachment);
-                    String contentId = getAttachmentContentID(attachment);
-                    strHTMLBody = replaceAttachmentInHtmlBody(strHTMLBody, removalList, attachment, contentId, imageMimeType);
+        for (Attachment attachment : rewriter.getReplacedAttachments()) {
+            attachment.setReferencedInHtmlBody(true);
+        }
+    }
+
+    private Map<String, Attachment> getInlineImagesByContentId() {
+        Map<String, Attachment> inlineImages = new HashMap<>();
+        for (Attachment attachment : attachments) {
+            if (isImage(attachment)) {
+                String contentId = attachment.getContentId();
+                if (StringUtils.isNotEmpty(contentId) && !inlineImages.containsKey(contentId)) {
+                    inlineImages.put(contentId, attachment);
                 }
             }
-
-            removeAttachments(removalList);
-            resetRecreatedHtmlBody(strHTMLBody);
         }
+        return inlineImages;
     }
 
-    private String replaceAttachmentInHtmlBody(String strHTMLBody,
-                                               List<Attachment> removalList, Attachment attachment,
-                                               String contentId, String imageMimeType) {
-        if (strHTMLBody.contains("cid:" + contentId)) {
-            String base64EncodedAttachment;
+    private void rewriteHtmlBody(CidReferenceRewriter rewriter) {
+        changingPart(htmlEmailBody);
+        String charSet = getCharSet();
+        try {
+            StorageOutputStream storageOut = htmlEmailBody.getStorageProvider().createStorageOutputStream();
+            CountingOutputStream countingOut = new CountingOutputStream(storageOut);
             try {
-                base64EncodedAttachment = Base64.encodeBase64String(IOUtils.toByteArray(attachment.getIs()));
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+                try (Reader in = new BufferedReader(new InputStreamReader(htmlEmailBody.getIs(), charSet));
+                     Writer out = new BufferedWriter(new OutputStreamWriter(countingOut, charSet))) {
+                    rewriter.rewrite(in, out);
+                }
+                htmlEmailBody.replaceStorage(storageOut.toStorage(), countingOut.getCount());
+            } catch (IOException | RuntimeException e) {
+                DiscardableStorageOutputStream.discardQuietly(storageOut);
+                throw e;
             }
-            strHTMLBody = strHTMLBody.replace("cid:" + contentId, "data:" + imageMimeType + ";base64," + base64EncodedAttachment);
-            removalList.add(attachment);
-            attachmentReplacedInHtmlBody = true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final class DataUriRewriter extends CidReferenceRewriter {
+
+        DataUriRewriter(Map<String, Attachment> attachmentsByContentId) {
+            super(attachmentsByContentId);
+        }
+
+        @Override
+        protected boolean writeReplacement(Attachment attachment, String contentId, Writer out) throws IOException {
+            out.write("data:" + getImageMimeType(attachment) + ";base64,");
+            try (InputStream is = attachment.getIs()) {
+                CodecUtil.copyBase64Encoded(is, out);
+            }
+            return true;
+        }
+    }
+
+    private static final class UrlReferenceRewriter extends CidReferenceRewriter {
+
+        private final InlineImageUrlResolver urlResolver;
+
+        UrlReferenceRewriter(Map<String, Attachment> attachmentsByContentId, InlineImageUrlResolver urlResolver) {
+            super(attachmentsByContentId);
+            this.urlResolver = urlResolver;
+        }
+
+        @Override
+        protected boolean writeReplacement(Attachment attachment, String contentId, Writer out) throws IOException {
+            String url = urlResolver.getUrl(attachment, contentId);
+            if (url == null) {
+                return false;
+            }
+            out.write(url);
+            return true;
         }
-        return strHTMLBody;
     }
 
     private boolean isImage(Attachment attachment) {
@@ -330,55 +663,11 @@ public class Email {
         return attachmentReplacedInHtmlBody;
     }
 
-    private void resetRecreatedHtmlBody(String strHTMLBody) {
-        try {
-            htmlEmailBody.setIs(new ByteArrayInputStream(strHTMLBody.getBytes(getCharSet())));
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     private void removeAttachments(List<Attachment> removalList) {
         attachments.removeAll(removalList);
     }
 
-    private String getAttachmentContentID(Attachment attachment) {
-        String contentId = ((MaximalBodyDescriptor) attachment.getBd()).getContentId();
-        contentId = stripContentID(contentId);
-        return contentId;
-    }
-
-    private String stripContentID(String contentId) {
-        contentId = StringUtils.stripStart(contentId, "<");
-        contentId = StringUtils.stripEnd(contentId, ">");
-        return contentId;
-    }
-
-    private String getHtmlBodyString() {
-        String strHTMLBody;
-        try {
-            String charSet = getCharSet();
-            strHTMLBody = convertStreamToString(htmlEmailBody.getIs(), charSet);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        return strHTMLBody;
-    }
-
     private String getCharSet() {
         return Common.getFallbackCharset(htmlEmailBody.getBd().getCharset());
     }
-
-
-    private String convertStreamToString(InputStream is, String charSet) throws IOException {
-        if (is != null) {
-            return IOUtils.toString(is, charSet);
-        } else {
-            return "";
-        }
-    }
-
-    private InputStream concatInputStream(InputStream source, InputStream destination) {
-        return new SequenceInputStream(destination, source);
-    }
 }
@@ -1,6 +1,6 @@
 package tech.blueglacier.email;
 
-import tech.blueglacier.util.Common;
+import org.apache.james.mime4j.storage.StorageProvider;
 import org.apache.james.mime4j.stream.BodyDescriptor;
 
 import java.io.InputStream;
@@ -14,9 +14,13 @@ public class EmailAttachment extends Attachment {
 	public EmailAttachment(BodyDescriptor bd, InputStream is){
 		super(bd, is);
 	}
+
+	public EmailAttachment(BodyDescriptor bd, InputStream is, StorageProvider storageProvider) {
+		super(bd, is, storageProvider);
+	}
 	
 	@Override
 	public String getAttachmentName(){
-		return Common.getAttachmentName(bd);		
+		return getClassification().getAttachmentName();
 		}		
 	}
@@ -1,5 +1,6 @@
 package tech.blueglacier.email;
 
+import org.apache.james.mime4j.storage.StorageProvider;
 import org.apache.james.mime4j.stream.BodyDescriptor;
 
 import java.io.InputStream;
@@ -11,6 +12,10 @@ public class HtmlEmailBody extends Attachment {
 		super(bd, is);
 	}
 
+	public HtmlEmailBody(BodyDescriptor bd, InputStream is, StorageProvider storageProvider) {
+		super(bd, is, storageProvider);
+	}
+
 	@Override
 	public String getAttachmentName() {
 		return "emailBody.html";
@@ -0,0 +1,17 @@
+package tech.blueglacier.email;
+
+/**
+ * Supplies the url a <code>cid:</code> reference of the html body is rewritten
+ * to, when inline images are referenced instead of being embedded as base64
+ * data uris. Implementations are shared across parses and must be thread safe.
+ */
+public interface InlineImageUrlResolver {
+
+    /**
+     * @param attachment the inline image attachment being referenced
+     * @param contentId  content id of the attachment, without angle brackets
+     * @return the url replacing the <code>cid:</code> reference, or <code>null</code>
+     * to leave the reference unchanged
+     */
+    String getUrl(Attachment attachment, String contentId);
+}
@@ -0,0 +1,71 @@
+package tech.blueglacier.email;
+
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.storage.StorageProvider;
+import org.apache.james.mime4j.stream.BodyDescriptor;
+import tech.blueglacier.configuration.ParseProfile;
+import tech.blueglacier.manager.EmailParseManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An attached <code>message/rfc822</code> part. Only the raw message is kept
+ * while parsing; it is parsed into an {@link Email} the first time
+ * {@link #getEmail()} is called, with the profile of the enclosing message.
+ */
+public class MessageAttachment extends Attachment {
+
+    private final ParseProfile parseProfile;
+    private Email email;
+
+    public MessageAttachment(BodyDescriptor bd, InputStream is, StorageProvider storageProvider, ParseProfile parseProfile) {
+        super(bd, is, storageProvider);
+        this.parseProfile = parseProfile;
+    }
+
+    /**
+     * @return the decoded file name of the part, <code>null</code> if the message was attached without one
+     */
+    @Override
+    public String getAttachmentName() {
+        return getClassification().getAttachmentName();
+    }
+
+    /**
+     * @return the attached message, parsed on first access; <code>null</code>
+     * if it lies deeper than the profile's maximum nested message depth
+     */
+    public Email getEmail() {
+        if (email == null && isParseable()) {
+            // Each level down has one level less left to open
+            ParseProfile nestedProfile = ParseProfile.copy(parseProfile)
+                    .setMaxNestedMessageDepth(parseProfile.getMaxNestedMessageDepth() - 1)
+                    .build();
+            try (InputStream is = getIs()) {
+                email = new EmailParseManager(is, nestedProfile).getParsedEmail();
+            } catch (MimeException | IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return email;
+    }
+
+    /**
+     * Also closes the attached message if it has been parsed.
+     */
+    @Override
+    public void delete() {
+        if (email != null) {
+            email.close();
+        }
+        super.delete();
+    }
+
+    /**
+     * @return whether {@link #getEmail()} may parse the message within the profile's depth limit
+     */
+    public boolean isParseable() {
+        return parseProfile.getMaxNestedMessageDepth() > 0;
+    }
+}
@@ -0,0 +1,60 @@
+package tech.blueglacier.email;
+
+import org.apache.james.mime4j.stream.BodyDescriptor;
+import tech.blueglacier.classification.PartClassification;
+import tech.blueglacier.util.Common;
+
+/**
+ * Describes a mime part which was left out of the parsed email, without any
+ * of its content.
+ */
+public class SkippedPart {
+
+    public enum Reason {
+        /**
+         * Rejected by the part filter of the parse profile.
+         */
+        FILTERED,
+        /**
+         * Decoded content exceeded the maximum part size of the parse profile.
+         */
+        TOO_LARGE
+    }
+
+    private final BodyDescriptor bd;
+    private final PartClassification classification;
+    private final Reason reason;
+
+    SkippedPart(BodyDescriptor bd, PartClassification classification, Reason reason) {
+        this.bd = bd;
+        this.classification = classification;
+        this.reason = reason;
+    }
+
+    public BodyDescriptor getBd() {
+        return bd;
+    }
+
+    public String getAttachmentName() {
+        return classification.getAttachmentName();
+    }
+
+    public String getMimeType() {
+        return bd.getMimeType();
+    }
+
+    /**
+     * @return size declared by the part headers, -1 if none is declared
+     */
+    public long getDeclaredSize() {
+        return Common.getDeclaredSize(bd);
+    }
+
+    public PartClassification getClassification() {
+        return classification;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
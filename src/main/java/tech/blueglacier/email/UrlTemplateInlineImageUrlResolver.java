@@ -0,0 +1,48 @@
+package tech.blueglacier.email;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * An {@link InlineImageUrlResolver} filling a url template. The placeholders
+ * <code>{cid}</code> and <code>{name}</code> are replaced by the url encoded
+ * content id and attachment name.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * InlineImageUrlResolver resolver = new UrlTemplateInlineImageUrlResolver("/messages/42/inline/{cid}");
+ * </pre>
+ */
+public class UrlTemplateInlineImageUrlResolver implements InlineImageUrlResolver {
+
+    private static final String CONTENT_ID_PLACEHOLDER = "{cid}";
+    private static final String NAME_PLACEHOLDER = "{name}";
+
+    private final String urlTemplate;
+
+    public UrlTemplateInlineImageUrlResolver(String urlTemplate) {
+        if (urlTemplate == null) {
+            throw new IllegalArgumentException();
+        }
+        this.urlTemplate = urlTemplate;
+    }
+
+    public String getUrl(Attachment attachment, String contentId) {
+        String url = StringUtils.replace(urlTemplate, CONTENT_ID_PLACEHOLDER, encode(contentId));
+        return StringUtils.replace(url, NAME_PLACEHOLDER, encode(attachment.getAttachmentName()));
+    }
+
+    private String encode(String value) {
+        if (value == null) {
+            return StringUtils.EMPTY;
+        }
+        try {
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
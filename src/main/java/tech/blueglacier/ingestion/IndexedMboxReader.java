@@ -0,0 +1,122 @@
+package tech.blueglacier.ingestion;
+
+import org.apache.james.mime4j.MimeException;
+import tech.blueglacier.configuration.ParseProfile;
+import tech.blueglacier.email.Email;
+import tech.blueglacier.manager.EmailBatchCallback;
+import tech.blueglacier.manager.EmailBatchParser;
+import tech.blueglacier.manager.EmailParseManager;
+import tech.blueglacier.util.ChannelRangeInputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Phaser;
+
+/**
+ * Parses single messages or ranges of messages of an mbox file through its
+ * {@link MboxIndex}. Messages are read straight from the file, without any
+ * copy or size limit, and ranges let an interrupted run resume or several
+ * workers share one file. Messages are reported by their index position.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * try (IndexedMboxReader mboxReader = new IndexedMboxReader(mbox, MboxIndex.load(indexPath, mbox), profile)) {
+ *     mboxReader.parseRange(lastProcessed + 1, mboxReader.getIndex().size(), callback);
+ * }
+ * </pre>
+ */
+public class IndexedMboxReader implements Closeable {
+
+	private final FileChannel channel;
+	private final MboxIndex index;
+	private final ParseProfile parseProfile;
+
+	public IndexedMboxReader(Path mbox, MboxIndex index) throws IOException {
+		this(mbox, index, ParseProfile.DEFAULT);
+	}
+
+	public IndexedMboxReader(Path mbox, MboxIndex index, ParseProfile parseProfile) throws IOException {
+		if (index == null || parseProfile == null) {
+			throw new IllegalArgumentException();
+		}
+		this.channel = FileChannel.open(mbox, StandardOpenOption.READ);
+		this.index = index;
+		this.parseProfile = parseProfile;
+	}
+
+	public MboxIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return raw content of the message; the stream may be read from any thread
+	 */
+	public InputStream openMessage(int messageIndex) {
+		return new ChannelRangeInputStream(channel, index.getStart(messageIndex), index.getEnd(messageIndex));
+	}
+
+	/**
+	 * Parses a single message. With {@link ParseProfile#isSourceReferences()}
+	 * the message is memory mapped and its parts refer to the mbox file
+	 * instead of being copied, so the file must not change while the email is
+	 * in use.
+	 */
+	public Email parse(int messageIndex) throws MimeException, IOException {
+		if (parseProfile.isSourceReferences()) {
+			long start = index.getStart(messageIndex);
+			ByteBuffer message = channel.map(FileChannel.MapMode.READ_ONLY, start, index.getEnd(messageIndex) - start);
+			return new EmailParseManager(message, parseProfile).getParsedEmail();
+		}
+		try (InputStream rawEmailFile = openMessage(messageIndex)) {
+			return new EmailParseManager(rawEmailFile, parseProfile).getParsedEmail();
+		}
+	}
+
+	/**
+	 * Parses the messages from <code>fromIndex</code> inclusive to
+	 * <code>toIndex</code> exclusive in order on the calling thread.
+	 */
+	public void parseRange(int fromIndex, int toIndex, EmailBatchCallback<Integer> callback) {
+		checkRange(fromIndex, toIndex);
+		for (int messageIndex = fromIndex; messageIndex < toIndex; messageIndex++) {
+			try {
+				callback.parsed(messageIndex, parse(messageIndex));
+			} catch (MimeException | IOException | RuntimeException e) {
+				callback.failed(messageIndex, e);
+			}
+		}
+	}
+
+	/**
+	 * Hands the messages of the range to the given batch parser, which parses
+	 * them with its own profile, and returns once all of them are done. Each
+	 * message is read by the worker parsing it.
+	 */
+	public void parseRange(int fromIndex, int toIndex, EmailBatchParser batchParser, EmailBatchCallback<Integer> callback) {
+		checkRange(fromIndex, toIndex);
+		Phaser pendingMessages = new Phaser(1);
+		for (int messageIndex = fromIndex; messageIndex < toIndex; messageIndex++) {
+			int message = messageIndex;
+			pendingMessages.register();
+			batchParser.submit(message, () -> openMessage(message), callback)
+					.whenComplete((result, e) -> pendingMessages.arriveAndDeregister());
+		}
+		pendingMessages.arriveAndAwaitAdvance();
+	}
+
+	private void checkRange(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > index.size() || fromIndex > toIndex) {
+			throw new IllegalArgumentException();
+		}
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+}
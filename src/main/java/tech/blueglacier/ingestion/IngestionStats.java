@@ -0,0 +1,104 @@
+package tech.blueglacier.ingestion;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput counters of an ingestion run. Counters are updated by many
+ * threads without contention and can be read at any time while the run
+ * is still going.
+ */
+public final class IngestionStats {
+
+	private final long startNanos = System.nanoTime();
+	private volatile long endNanos;
+	private final LongAdder messagesFound = new LongAdder();
+	private final LongAdder messagesParsed = new LongAdder();
+	private final LongAdder messagesFailed = new LongAdder();
+	private final LongAdder directoriesFailed = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+
+	IngestionStats() {
+	}
+
+	/**
+	 * @return message files found so far, whether or not they were parsed yet
+	 */
+	public long getMessagesFound() {
+		return messagesFound.sum();
+	}
+
+	public long getMessagesParsed() {
+		return messagesParsed.sum();
+	}
+
+	public long getMessagesFailed() {
+		return messagesFailed.sum();
+	}
+
+	/**
+	 * @return directories which could not be listed, their messages are not counted at all
+	 */
+	public long getDirectoriesFailed() {
+		return directoriesFailed.sum();
+	}
+
+	/**
+	 * @return bytes read from message files which were closed
+	 */
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	/**
+	 * @return time since the run started, or its total duration once it finished
+	 */
+	public long getElapsedMillis() {
+		long end = endNanos;
+		return TimeUnit.NANOSECONDS.toMillis((end == 0 ? System.nanoTime() : end) - startNanos);
+	}
+
+	public double getMessagesPerSecond() {
+		return perSecond(getMessagesParsed() + getMessagesFailed());
+	}
+
+	public double getBytesPerSecond() {
+		return perSecond(getBytesRead());
+	}
+
+	private double perSecond(long count) {
+		long elapsedMillis = Math.max(1, getElapsedMillis());
+		return count * 1000d / elapsedMillis;
+	}
+
+	void messageFound() {
+		messagesFound.increment();
+	}
+
+	void messageParsed() {
+		messagesParsed.increment();
+	}
+
+	void messageFailed() {
+		messagesFailed.increment();
+	}
+
+	void directoryFailed() {
+		directoriesFailed.increment();
+	}
+
+	void bytesRead(long count) {
+		bytesRead.add(count);
+	}
+
+	void finished() {
+		endNanos = System.nanoTime();
+	}
+
+	@Override
+	public String toString() {
+		return "IngestionStats{found=" + getMessagesFound() + ", parsed=" + getMessagesParsed()
+				+ ", failed=" + getMessagesFailed() + ", failedDirectories=" + getDirectoriesFailed() + ", bytes=" + getBytesRead()
+				+ ", elapsedMillis=" + getElapsedMillis() + "}";
+	}
+}
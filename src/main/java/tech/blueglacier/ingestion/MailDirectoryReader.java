@@ -0,0 +1,270 @@
+package tech.blueglacier.ingestion;
+
+import org.apache.commons.io.input.CountingInputStream;
+import tech.blueglacier.email.Email;
+import tech.blueglacier.manager.EmailBatchCallback;
+import tech.blueglacier.manager.EmailBatchParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses every message below a directory, which may be a Maildir, a tree of
+ * Maildirs such as Maildir++ folders, or any tree of <code>.eml</code> files.
+ * Within a Maildir the files of <code>cur</code> and <code>new</code> are read
+ * and <code>tmp</code>, holding deliveries in progress, is skipped; elsewhere
+ * only files named <code>*.eml</code> are read. Directories are listed in
+ * parallel while the messages are parsed by the workers of an
+ * {@link EmailBatchParser}, which also bounds how many files are open at once:
+ * each file is opened by the worker parsing it and closed as soon as it is done.
+ * Symbolic links to directories are not followed.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * try (EmailBatchParser batchParser = new EmailBatchParser(profile, 8)) {
+ *     MailDirectoryReader reader = new MailDirectoryReader(maildir);
+ *     reader.parseAll(batchParser, callback);
+ *     log.info("ingested {}", reader.getStats());
+ * }
+ * </pre>
+ */
+public class MailDirectoryReader {
+
+	private static final String[] MAILDIR_MESSAGE_DIRECTORIES = {"cur", "new"};
+	private static final String MAILDIR_TMP_DIRECTORY = "tmp";
+	private static final String EML_EXTENSION = ".eml";
+
+	private final Path root;
+	private final int walkers;
+	private volatile IngestionStats stats = new IngestionStats();
+
+	/**
+	 * Lists directories with up to four threads.
+	 */
+	public MailDirectoryReader(Path root) {
+		this(root, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * @param root    directory to read
+	 * @param walkers number of threads listing directories
+	 */
+	public MailDirectoryReader(Path root, int walkers) {
+		if (root == null || walkers < 1) {
+			throw new IllegalArgumentException();
+		}
+		this.root = root;
+		this.walkers = walkers;
+	}
+
+	/**
+	 * @return counters of the current or last run
+	 */
+	public IngestionStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Hands every message file to the given batch parser and returns once all
+	 * of them are done. Directories which cannot be listed are reported to the
+	 * callback as failed items as well, but counted apart from the messages.
+	 *
+	 * @return counters of this run
+	 */
+	public IngestionStats parseAll(EmailBatchParser batchParser, EmailBatchCallback<Path> callback) {
+		IngestionStats runStats = new IngestionStats();
+		stats = runStats;
+		Phaser pendingMessages = new Phaser(1);
+		ForkJoinPool walkerPool = new ForkJoinPool(walkers);
+		try {
+			walkerPool.invoke(new DirectoryTask(root, false, new Run(batchParser, callback, runStats, pendingMessages)));
+		} finally {
+			walkerPool.shutdown();
+		}
+		pendingMessages.arriveAndAwaitAdvance();
+		runStats.finished();
+		return runStats;
+	}
+
+	private static boolean isEml(Path file) {
+		String fileName = file.getFileName().toString();
+		return fileName.regionMatches(true, fileName.length() - EML_EXTENSION.length(), EML_EXTENSION, 0, EML_EXTENSION.length());
+	}
+
+	private static final class Run {
+
+		private final EmailBatchParser batchParser;
+		private final EmailBatchCallback<Path> callback;
+		private final EmailBatchCallback<Path> messageCallback;
+		private final IngestionStats stats;
+		private final Phaser pendingMessages;
+
+		private Run(EmailBatchParser batchParser, EmailBatchCallback<Path> callback, IngestionStats stats, Phaser pendingMessages) {
+			this.batchParser = batchParser;
+			this.callback = callback;
+			this.messageCallback = new CountingCallback(callback, stats);
+			this.stats = stats;
+			this.pendingMessages = pendingMessages;
+		}
+
+		// Submitting blocks while the batch parser is full, so the walker pool is told to compensate
+		private void submit(Path file) {
+			stats.messageFound();
+			pendingMessages.register();
+			Submission submission = new Submission(this, file);
+			try {
+				ForkJoinPool.managedBlock(submission);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				messageCallback.failed(file, e);
+				pendingMessages.arriveAndDeregister();
+				return;
+			}
+			submission.result.whenComplete((result, e) -> pendingMessages.arriveAndDeregister());
+		}
+
+		private void failed(Path directory, Exception e) {
+			stats.directoryFailed();
+			callback.failed(directory, e);
+		}
+
+		private InputStream open(Path file) throws IOException {
+			return new CountingInputStream(Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ))) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						stats.bytesRead(getByteCount());
+					}
+				}
+			};
+		}
+	}
+
+	/**
+	 * Hands one file to the batch parser as a blocking step of a walker.
+	 */
+	private static final class Submission implements ForkJoinPool.ManagedBlocker {
+
+		private final Run run;
+		private final Path file;
+		private CompletableFuture<Void> result;
+
+		private Submission(Run run, Path file) {
+			this.run = run;
+			this.file = file;
+		}
+
+		public boolean block() {
+			if (result == null) {
+				result = run.batchParser.submit(file, () -> run.open(file), run.messageCallback);
+			}
+			return true;
+		}
+
+		public boolean isReleasable() {
+			return result != null;
+		}
+	}
+
+	private static final class CountingCallback implements EmailBatchCallback<Path> {
+
+		private final EmailBatchCallback<Path> callback;
+		private final IngestionStats stats;
+
+		private CountingCallback(EmailBatchCallback<Path> callback, IngestionStats stats) {
+			this.callback = callback;
+			this.stats = stats;
+		}
+
+		public void parsed(Path item, Email email) {
+			stats.messageParsed();
+			callback.parsed(item, email);
+		}
+
+		public void failed(Path item, Exception e) {
+			stats.messageFailed();
+			callback.failed(item, e);
+		}
+	}
+
+	/**
+	 * Lists one directory, submitting its message files and forking a task for
+	 * every sub directory.
+	 */
+	private static final class DirectoryTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path directory;
+		private final boolean maildirMessages;
+		private final Run run;
+
+		private DirectoryTask(Path directory, boolean maildirMessages, Run run) {
+			this.directory = directory;
+			this.maildirMessages = maildirMessages;
+			this.run = run;
+		}
+
+		@Override
+		protected void compute() {
+			List<Path> files = new ArrayList<>();
+			List<Path> directories = new ArrayList<>();
+			Set<String> directoryNames = new HashSet<>();
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+				for (Path entry : entries) {
+					if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+						directories.add(entry);
+						directoryNames.add(entry.getFileName().toString());
+					} else {
+						files.add(entry);
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				run.failed(directory, e);
+				return;
+			}
+			boolean maildir = directoryNames.contains(MAILDIR_TMP_DIRECTORY)
+					&& directoryNames.contains(MAILDIR_MESSAGE_DIRECTORIES[0])
+					&& directoryNames.contains(MAILDIR_MESSAGE_DIRECTORIES[1]);
+			List<DirectoryTask> subTasks = new ArrayList<>(directories.size());
+			for (Path subDirectory : directories) {
+				String name = subDirectory.getFileName().toString();
+				if (maildir && name.equals(MAILDIR_TMP_DIRECTORY)) {
+					continue;
+				}
+				boolean messages = maildir && (name.equals(MAILDIR_MESSAGE_DIRECTORIES[0]) || name.equals(MAILDIR_MESSAGE_DIRECTORIES[1]));
+				subTasks.add(new DirectoryTask(subDirectory, messages, run));
+			}
+			// Sub directories are listed by other walkers while this one submits the files
+			for (DirectoryTask subTask : subTasks) {
+				subTask.fork();
+			}
+			for (Path file : files) {
+				if (maildirMessages || isEml(file)) {
+					run.submit(file);
+				}
+			}
+			for (DirectoryTask subTask : subTasks) {
+				subTask.join();
+			}
+		}
+	}
+}
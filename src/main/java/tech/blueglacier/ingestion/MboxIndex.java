@@ -0,0 +1,339 @@
+package tech.blueglacier.ingestion;
+
+import org.apache.james.mime4j.mboxiterator.FromLinePatterns;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Byte offsets and Message-IDs of the messages of an mbox file. The index is
+ * built by a single sequential scan for From_ lines, which is not limited in
+ * file size, and can be saved next to the mbox so that later runs open any
+ * message directly, resume after the last processed one or split the file
+ * between workers, see {@link IndexedMboxReader}.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * MboxIndex index = Files.exists(indexPath) ? MboxIndex.load(indexPath, mbox) : MboxIndex.build(mbox);
+ * index.save(indexPath);
+ * </pre>
+ */
+public final class MboxIndex {
+
+	private static final int MAGIC = 0x4D424958;
+	private static final int VERSION = 2;
+	private static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+	// Longer lines are only inspected up to this length
+	private static final int MAX_INSPECTED_LINE_LENGTH = 1024;
+	private static final Pattern FROM_LINE = Pattern.compile(FromLinePatterns.DEFAULT2);
+	private static final byte[] FROM_PREFIX = "From ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] MESSAGE_ID_PREFIX = "Message-ID:".getBytes(StandardCharsets.US_ASCII);
+
+	private final long mboxSize;
+	private final long mboxLastModified;
+	private final int size;
+	private final long[] starts;
+	private final long[] ends;
+	private final String[] messageIds;
+
+	private MboxIndex(long mboxSize, long mboxLastModified, int size, long[] starts, long[] ends, String[] messageIds) {
+		this.mboxSize = mboxSize;
+		this.mboxLastModified = mboxLastModified;
+		this.size = size;
+		this.starts = starts;
+		this.ends = ends;
+		this.messageIds = messageIds;
+	}
+
+	/**
+	 * @return number of messages in the mbox
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return offset of the first byte of the message, just after its From_ line
+	 */
+	public long getStart(int messageIndex) {
+		checkIndex(messageIndex);
+		return starts[messageIndex];
+	}
+
+	/**
+	 * @return offset after the last byte of the message
+	 */
+	public long getEnd(int messageIndex) {
+		checkIndex(messageIndex);
+		return ends[messageIndex];
+	}
+
+	/**
+	 * @return Message-ID header of the message as found in the file, <code>null</code> if it has none
+	 * or one of its lines is too long to be read whole
+	 */
+	public String getMessageId(int messageIndex) {
+		checkIndex(messageIndex);
+		return messageIds[messageIndex];
+	}
+
+	/**
+	 * @return size of the indexed mbox file
+	 */
+	public long getMboxSize() {
+		return mboxSize;
+	}
+
+	/**
+	 * @return last modification time of the indexed mbox file in milliseconds
+	 */
+	public long getMboxLastModified() {
+		return mboxLastModified;
+	}
+
+	/**
+	 * Splits the messages into consecutive ranges of about equal byte size.
+	 *
+	 * @return <code>shardCount + 1</code> ascending message indexes; shard
+	 * <code>i</code> covers the messages from <code>boundaries[i]</code>
+	 * inclusive to <code>boundaries[i + 1]</code> exclusive
+	 */
+	public int[] getShardBoundaries(int shardCount) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException();
+		}
+		int[] boundaries = new int[shardCount + 1];
+		if (size == 0) {
+			return boundaries;
+		}
+		long first = starts[0];
+		long total = ends[size - 1] - first;
+		for (int shard = 1; shard < shardCount; shard++) {
+			long offset = first + total * shard / shardCount;
+			int boundary = Arrays.binarySearch(starts, 0, size, offset);
+			boundaries[shard] = Math.max(boundaries[shard - 1], boundary >= 0 ? boundary : -boundary - 1);
+		}
+		boundaries[shardCount] = size;
+		return boundaries;
+	}
+
+	private void checkIndex(int messageIndex) {
+		if (messageIndex < 0 || messageIndex >= size) {
+			throw new IndexOutOfBoundsException("message " + messageIndex + " of " + size);
+		}
+	}
+
+	/**
+	 * Scans the mbox for messages.
+	 */
+	public static MboxIndex build(Path mbox) throws IOException {
+		// Taken before scanning, so that appending during the scan leaves the index stale
+		long lastModified = Files.getLastModifiedTime(mbox).toMillis();
+		try (FileChannel channel = FileChannel.open(mbox, StandardOpenOption.READ)) {
+			Scanner scanner = new Scanner();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(SCAN_BUFFER_SIZE);
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				scanner.scan(buffer);
+				buffer.clear();
+			}
+			return scanner.finish(lastModified);
+		}
+	}
+
+	public void save(Path indexFile) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(mboxSize);
+			out.writeLong(mboxLastModified);
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				out.writeLong(starts[i]);
+				out.writeLong(ends[i]);
+				writeString(out, messageIds[i]);
+			}
+		}
+	}
+
+	// Length prefixed, as writeUTF is limited to 64KB
+	private static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < -1) {
+			throw new IOException("corrupt mbox index");
+		}
+		if (length == -1) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Loads a saved index, checking that it still matches the given mbox.
+	 *
+	 * @throws IOException if the index is unreadable or the mbox changed size
+	 *                     or modification time since it was built
+	 */
+	public static MboxIndex load(Path indexFile, Path mbox) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("not an mbox index: " + indexFile);
+			}
+			long mboxSize = in.readLong();
+			long mboxLastModified = in.readLong();
+			if (mboxSize != Files.size(mbox) || mboxLastModified != Files.getLastModifiedTime(mbox).toMillis()) {
+				throw new IOException("index " + indexFile + " does not match " + mbox);
+			}
+			int size = in.readInt();
+			long[] starts = new long[size];
+			long[] ends = new long[size];
+			String[] messageIds = new String[size];
+			for (int i = 0; i < size; i++) {
+				starts[i] = in.readLong();
+				ends[i] = in.readLong();
+				messageIds[i] = readString(in);
+			}
+			return new MboxIndex(mboxSize, mboxLastModified, size, starts, ends, messageIds);
+		}
+	}
+
+	/**
+	 * Finds From_ lines, matched by the same pattern as {@link MboxReader} uses,
+	 * and Message-ID headers, one byte at a time across buffer boundaries.
+	 */
+	private static final class Scanner {
+
+		private final byte[] line = new byte[MAX_INSPECTED_LINE_LENGTH];
+		private int lineLength;
+		private boolean lineTruncated;
+		private long lineStart;
+		private long position;
+
+		private boolean inHeader;
+		private boolean inMessageId;
+		private StringBuilder messageId;
+		private boolean messageIdTruncated;
+
+		private int size;
+		private long[] starts = new long[1024];
+		private long[] ends = new long[1024];
+		private String[] messageIds = new String[1024];
+
+		void scan(ByteBuffer buffer) {
+			while (buffer.hasRemaining()) {
+				byte b = buffer.get();
+				position++;
+				if (b == '\n') {
+					endOfLine();
+					lineLength = 0;
+					lineTruncated = false;
+					lineStart = position;
+				} else if (lineLength < line.length) {
+					line[lineLength++] = b;
+				} else {
+					lineTruncated = true;
+				}
+			}
+		}
+
+		MboxIndex finish(long lastModified) {
+			if (position > lineStart) {
+				endOfLine();
+			}
+			endMessage(position);
+			return new MboxIndex(position, lastModified, size, starts, ends, messageIds);
+		}
+
+		private void endOfLine() {
+			int length = lineLength;
+			if (length > 0 && line[length - 1] == '\r' && !lineTruncated) {
+				length--;
+			}
+			if (startsWith(FROM_PREFIX, length, false)
+					&& FROM_LINE.matcher(new String(line, 0, length, StandardCharsets.ISO_8859_1)).matches()) {
+				endMessage(lineStart);
+				startMessage(position);
+				return;
+			}
+			if (inHeader) {
+				if (length == 0) {
+					endHeader();
+				} else if (inMessageId && (line[0] == ' ' || line[0] == '\t')) {
+					messageId.append(new String(line, 0, length, StandardCharsets.ISO_8859_1));
+					messageIdTruncated |= lineTruncated;
+				} else {
+					inMessageId = messageId == null && startsWith(MESSAGE_ID_PREFIX, length, true);
+					if (inMessageId) {
+						messageId = new StringBuilder(new String(line, MESSAGE_ID_PREFIX.length, length - MESSAGE_ID_PREFIX.length, StandardCharsets.ISO_8859_1));
+						messageIdTruncated = lineTruncated;
+					}
+				}
+			}
+		}
+
+		private boolean startsWith(byte[] prefix, int length, boolean ignoreCase) {
+			if (length < prefix.length) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length; i++) {
+				byte b = line[i];
+				if (b != prefix[i] && !(ignoreCase && Character.toLowerCase((char) b) == Character.toLowerCase((char) prefix[i]))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void startMessage(long start) {
+			if (size == starts.length) {
+				starts = Arrays.copyOf(starts, size << 1);
+				ends = Arrays.copyOf(ends, size << 1);
+				messageIds = Arrays.copyOf(messageIds, size << 1);
+			}
+			starts[size] = start;
+			ends[size] = -1;
+			size++;
+			inHeader = true;
+			inMessageId = false;
+			messageId = null;
+		}
+
+		private void endHeader() {
+			inHeader = false;
+			inMessageId = false;
+			// A Message-ID cut at the inspected length is left out rather than recorded wrong
+			if (messageId != null && !messageIdTruncated) {
+				messageIds[size - 1] = messageId.toString().trim();
+			}
+		}
+
+		private void endMessage(long end) {
+			if (size > 0 && ends[size - 1] < 0) {
+				if (inHeader) {
+					endHeader();
+				}
+				ends[size - 1] = end;
+			}
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package tech.blueglacier.ingestion;
+
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.mboxiterator.CharBufferWrapper;
+import org.apache.james.mime4j.mboxiterator.FromLinePatterns;
+import org.apache.james.mime4j.mboxiterator.MboxIterator;
+import tech.blueglacier.configuration.ParseProfile;
+import tech.blueglacier.manager.EmailBatchCallback;
+import tech.blueglacier.manager.EmailBatchParser;
+import tech.blueglacier.manager.EmailParseManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.Phaser;
+
+/**
+ * Parses every message of an mbox file, one after another or spread over the
+ * workers of an {@link EmailBatchParser}. The file is memory mapped by the
+ * mime4j {@link MboxIterator}, which limits it to 2 GB; messages are reported
+ * by their zero based position in the file.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * try (MboxReader mboxReader = new MboxReader(mboxPath, profile);
+ *      EmailBatchParser batchParser = new EmailBatchParser(profile, 8)) {
+ *     mboxReader.parseAll(batchParser, callback);
+ * }
+ * </pre>
+ */
+public class MboxReader implements Closeable {
+
+	// Maps every byte to exactly one char and back, so 8bit content survives the iterator unchanged
+	private static final Charset MBOX_CHARSET = StandardCharsets.ISO_8859_1;
+	private static final int DEFAULT_MAX_MESSAGE_SIZE = 10 * 1024 * 1024;
+
+	private final MboxIterator mboxIterator;
+	private final ParseProfile parseProfile;
+
+	public MboxReader(Path mbox) throws IOException {
+		this(mbox, ParseProfile.DEFAULT);
+	}
+
+	public MboxReader(Path mbox, ParseProfile parseProfile) throws IOException {
+		this(mbox, parseProfile, DEFAULT_MAX_MESSAGE_SIZE);
+	}
+
+	/**
+	 * @param maxMessageSize size in bytes of the largest message the mbox may contain
+	 */
+	public MboxReader(Path mbox, ParseProfile parseProfile, int maxMessageSize) throws IOException {
+		this.parseProfile = parseProfile;
+		this.mboxIterator = MboxIterator.fromFile(mbox.toFile())
+				.charset(MBOX_CHARSET)
+				// Unlike the default, the sender need not be an address as in "From - ..." or "From MAILER-DAEMON ..."
+				.fromLine(FromLinePatterns.DEFAULT2)
+				.maxMessageSize(maxMessageSize)
+				.build();
+	}
+
+	/**
+	 * Parses the messages in order on the calling thread.
+	 */
+	public void parseAll(EmailBatchCallback<Integer> callback) {
+		int messageIndex = 0;
+		for (CharBufferWrapper message : mboxIterator) {
+			try (InputStream rawEmailFile = message.asInputStream(MBOX_CHARSET)) {
+				callback.parsed(messageIndex, new EmailParseManager(rawEmailFile, parseProfile).getParsedEmail());
+			} catch (MimeException | IOException | RuntimeException e) {
+				callback.failed(messageIndex, e);
+			}
+			messageIndex++;
+		}
+	}
+
+	/**
+	 * Hands the messages to the given batch parser, which parses them with its
+	 * own profile, and returns once all of them are done. Reading blocks while
+	 * the batch parser is saturated, so only a bounded number of messages is
+	 * held in memory at any time.
+	 */
+	public void parseAll(EmailBatchParser batchParser, EmailBatchCallback<Integer> callback) {
+		Phaser pendingMessages = new Phaser(1);
+		int messageIndex = 0;
+		for (CharBufferWrapper message : mboxIterator) {
+			// The iterator reuses its buffer, so the message is copied out before it leaves this thread
+			InputStream rawEmailFile = message.asInputStream(MBOX_CHARSET);
+			pendingMessages.register();
+			batchParser.submit(messageIndex++, () -> rawEmailFile, callback)
+					.whenComplete((result, e) -> pendingMessages.arriveAndDeregister());
+		}
+		pendingMessages.arriveAndAwaitAdvance();
+	}
+
+	public void close() throws IOException {
+		mboxIterator.close();
+	}
+}
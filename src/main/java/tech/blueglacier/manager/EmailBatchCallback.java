@@ -0,0 +1,16 @@
+package tech.blueglacier.manager;
+
+import tech.blueglacier.email.Email;
+
+/**
+ * Receives the outcome of every item of a batch. Methods are called from the
+ * worker threads, possibly concurrently, so implementations must be thread safe.
+ *
+ * @param <T> type identifying a batch item, such as a {@link java.nio.file.Path}
+ */
+public interface EmailBatchCallback<T> {
+
+	void parsed(T item, Email email);
+
+	void failed(T item, Exception e);
+}
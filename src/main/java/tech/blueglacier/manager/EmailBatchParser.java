@@ -0,0 +1,202 @@
+package tech.blueglacier.manager;
+
+import tech.blueglacier.configuration.ParseProfile;
+import tech.blueglacier.email.Email;
+import tech.blueglacier.storage.MemoryBudget;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses many messages across a bounded pool of worker threads, all sharing one
+ * {@link ParseProfile}. Each item succeeds or fails on its own; a failing item
+ * never affects the others. Submitting blocks while the configured number of
+ * items is already queued or running, so a producer cannot outrun the workers.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * try (EmailBatchParser batchParser = new EmailBatchParser(profile, 8)) {
+ *     batchParser.parseAll(paths, new EmailBatchCallback&lt;Path&gt;() {
+ *         public void parsed(Path path, Email email) { ... }
+ *         public void failed(Path path, Exception e) { ... }
+ *     });
+ * }
+ * </pre>
+ */
+public class EmailBatchParser implements AutoCloseable {
+
+	private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+	private final ParseProfile parseProfile;
+	private final ExecutorService executor;
+	private final Semaphore pendingItems;
+	private final int maxPendingItems;
+	private final MemoryBudget memoryBudget;
+
+	/**
+	 * Uses one worker per available processor.
+	 */
+	public EmailBatchParser(ParseProfile parseProfile) {
+		this(parseProfile, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Allows twice as many items pending as there are workers.
+	 */
+	public EmailBatchParser(ParseProfile parseProfile, int workers) {
+		this(parseProfile, workers, 2 * workers);
+	}
+
+	/**
+	 * @param parseProfile    profile shared by all parses
+	 * @param workers         number of worker threads
+	 * @param maxPendingItems number of items queued or running above which submitting blocks
+	 */
+	public EmailBatchParser(ParseProfile parseProfile, int workers, int maxPendingItems) {
+		this(parseProfile, workers, maxPendingItems, null);
+	}
+
+	/**
+	 * Also holds back new items while the given budget, shared with the
+	 * storage of the profile, is exhausted and parses still running hold part
+	 * of it. Memory held by parsed emails does not hold back new items; it is
+	 * returned once the caller closes them.
+	 *
+	 * @param memoryBudget budget to wait for, <code>null</code> to never wait
+	 */
+	public EmailBatchParser(ParseProfile parseProfile, int workers, int maxPendingItems, MemoryBudget memoryBudget) {
+		if (parseProfile == null || workers < 1 || maxPendingItems < workers) {
+			throw new IllegalArgumentException();
+		}
+		this.parseProfile = parseProfile;
+		this.executor = Executors.newFixedThreadPool(workers, new WorkerThreadFactory());
+		this.pendingItems = new Semaphore(maxPendingItems);
+		this.maxPendingItems = maxPendingItems;
+		this.memoryBudget = memoryBudget;
+	}
+
+	public CompletableFuture<Email> submit(Path path) {
+		return submit(() -> Files.newInputStream(path));
+	}
+
+	/**
+	 * Queues a single item, blocking while too many items are pending or,
+	 * if one was given, the memory budget is exhausted.
+	 *
+	 * @return completes with the parsed email, or exceptionally with the cause of the failure
+	 */
+	public CompletableFuture<Email> submit(EmailSource source) {
+		try {
+			awaitMemory();
+			pendingItems.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			CompletableFuture<Email> interrupted = new CompletableFuture<>();
+			interrupted.completeExceptionally(e);
+			return interrupted;
+		}
+		CompletableFuture<Email> result;
+		try {
+			result = CompletableFuture.supplyAsync(() -> parse(source), executor);
+		} catch (RuntimeException e) {
+			pendingItems.release();
+			throw e;
+		}
+		result.whenComplete((email, e) -> pendingItems.release());
+		return result;
+	}
+
+	/**
+	 * Queues a single item, blocking while too many items are pending, and
+	 * reports its outcome to the callback.
+	 *
+	 * @return completes once the callback has returned
+	 */
+	public <T> CompletableFuture<Void> submit(T item, EmailSource source, EmailBatchCallback<T> callback) {
+		return submit(source).handle((email, e) -> {
+			if (e == null) {
+				callback.parsed(item, email);
+			} else {
+				callback.failed(item, unwrap(e));
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Parses all given files, reporting each to the callback, and returns once every one is done.
+	 */
+	public void parseAll(Collection<Path> paths, EmailBatchCallback<Path> callback) {
+		List<CompletableFuture<Void>> results = new ArrayList<>(paths.size());
+		for (Path path : paths) {
+			results.add(submit(path, () -> Files.newInputStream(path), callback));
+		}
+		CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+	}
+
+	// Waiting only helps while running parses hold part of the budget, memory held by parsed emails is up to the caller
+	private void awaitMemory() throws InterruptedException {
+		while (memoryBudget != null && memoryBudget.getAvailableBytes() == 0 && memoryBudget.getInFlightBytes() > 0
+				&& pendingItems.availablePermits() < maxPendingItems) {
+			memoryBudget.awaitAvailable(10, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private Email parse(EmailSource source) {
+		MemoryBudget.Tracking inFlight = memoryBudget == null ? null : memoryBudget.track();
+		try (InputStream rawEmailFile = source.open()) {
+			return new EmailParseManager(rawEmailFile, parseProfile).getParsedEmail();
+		} catch (Exception e) {
+			throw new CompletionException(e);
+		} finally {
+			if (inFlight != null) {
+				inFlight.close();
+			}
+		}
+	}
+
+	private static Exception unwrap(Throwable e) {
+		Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+		return cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+	}
+
+	/**
+	 * Stops accepting items and waits for those already submitted to finish.
+	 */
+	public void close() {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				// keep waiting, items are never abandoned half parsed
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class WorkerThreadFactory implements ThreadFactory {
+
+		private final int poolNumber = POOL_NUMBER.incrementAndGet();
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "email-batch-parser-" + poolNumber + "-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
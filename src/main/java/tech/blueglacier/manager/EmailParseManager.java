@@ -1,38 +1,133 @@
 package tech.blueglacier.manager;
 
+import tech.blueglacier.configuration.ParseProfile;
+import tech.blueglacier.configuration.ParseProfile.ContentDecoding;
 import tech.blueglacier.email.Email;
 import tech.blueglacier.parser.CustomContentHandler;
+import tech.blueglacier.storage.SourceSliceStorageStrategy;
+import tech.blueglacier.storage.StorageStrategy;
 import org.apache.james.mime4j.MimeException;
-import org.apache.james.mime4j.codec.DecodeMonitor;
+import org.apache.james.mime4j.field.DefaultFieldParser;
 import org.apache.james.mime4j.message.DefaultBodyDescriptorBuilder;
 import org.apache.james.mime4j.parser.ContentHandler;
 import org.apache.james.mime4j.parser.MimeStreamParser;
 import org.apache.james.mime4j.stream.BodyDescriptorBuilder;
-import org.apache.james.mime4j.stream.MimeConfig;
+import org.apache.james.mime4j.stream.EntityState;
+import org.apache.james.mime4j.stream.MimeTokenStream;
+import org.apache.james.mime4j.stream.RecursionMode;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 public class EmailParseManager {
 
 	final InputStream rawEmailFile;
+	final ParseProfile parseProfile;
 	final ContentHandler contentHandler;
-	
+
 	public EmailParseManager(InputStream rawEmailFile) {
+		this(rawEmailFile, ParseProfile.DEFAULT);
+	}
+
+	public EmailParseManager(InputStream rawEmailFile, StorageStrategy storageStrategy) {
+		this(rawEmailFile, ParseProfile.copy(ParseProfile.DEFAULT).setStorageStrategy(storageStrategy).build());
+	}
+
+	public EmailParseManager(InputStream rawEmailFile, ParseProfile parseProfile) {
 		this.rawEmailFile = rawEmailFile;
-		contentHandler = new CustomContentHandler();
-	}	
+		this.parseProfile = parseProfile;
+		contentHandler = new CustomContentHandler(parseProfile);
+	}
+
+	/**
+	 * Parses a message held in memory. Parts stored exactly as found in the
+	 * message, because they need no decoding or decoding is not
+	 * {@link ContentDecoding#DECODED}, are kept as slices of the buffer
+	 * instead of being copied, so the buffer must not change while the parsed
+	 * email is in use. With {@link ParseProfile#isSourceReferences()} this
+	 * extends to every part.
+	 *
+	 * @param rawEmail the message between position and limit; its position is left unchanged
+	 */
+	public EmailParseManager(ByteBuffer rawEmail, ParseProfile parseProfile) {
+		this(new SourceSliceStorageStrategy(rawEmail, parseProfile.getStorageStrategy(), getSourceDecoding(parseProfile)), parseProfile);
+	}
+
+	private EmailParseManager(SourceSliceStorageStrategy source, ParseProfile parseProfile) {
+		this(source.getInputStream(), ParseProfile.copy(parseProfile)
+				.setContentDecoding(source.getContentDecoding())
+				.setStorageStrategy(source)
+				.build());
+	}
+
+	/**
+	 * @see #EmailParseManager(ByteBuffer, ParseProfile)
+	 */
+	public EmailParseManager(byte[] rawEmail, ParseProfile parseProfile) {
+		this(ByteBuffer.wrap(rawEmail), parseProfile);
+	}
+
+	/**
+	 * Memory maps the message file and parses it as described for
+	 * {@link #EmailParseManager(ByteBuffer, ParseProfile)}; the file must not
+	 * change while the parsed email is in use.
+	 *
+	 * @throws IOException if the file cannot be read or is larger than 2 GB
+	 */
+	public EmailParseManager(Path rawEmailFile, ParseProfile parseProfile) throws IOException {
+		this(map(rawEmailFile), parseProfile);
+	}
+
+	private static ContentDecoding getSourceDecoding(ParseProfile parseProfile) {
+		if (parseProfile.isSourceReferences() && parseProfile.getContentDecoding() == ContentDecoding.DECODED) {
+			// Parts reach storage still encoded, so they can be matched to the message bytes
+			return ContentDecoding.DEFERRED;
+		}
+		return parseProfile.getContentDecoding();
+	}
+
+	// The mapping stays valid after the channel is closed, for as long as the buffer is referenced
+	private static ByteBuffer map(Path rawEmailFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(rawEmailFile, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("too large to be mapped: " + rawEmailFile);
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
 
 	public Email getParsedEmail() throws MimeException, IOException {
-		
-		MimeConfig mime4jParserConfig = MimeConfig.DEFAULT;
-		BodyDescriptorBuilder bodyDescriptorBuilder = new DefaultBodyDescriptorBuilder();
-		MimeStreamParser mime4jParser = new MimeStreamParser(mime4jParserConfig,DecodeMonitor.SILENT,bodyDescriptorBuilder);
-		mime4jParser.setContentDecoding(true);
-		mime4jParser.setContentHandler(contentHandler);		
-		
+		// Only the descriptor builder and the parser hold per message state, everything else comes from the shared profile
+		BodyDescriptorBuilder bodyDescriptorBuilder = new DefaultBodyDescriptorBuilder(null, DefaultFieldParser.getParser(), parseProfile.getDecodeMonitor());
+		if (parseProfile.isHeadersOnly()) {
+			return getParsedHeaders(bodyDescriptorBuilder);
+		}
+		MimeTokenStream tokenStream = new MimeTokenStream(parseProfile.getMimeConfig(), parseProfile.getDecodeMonitor(), bodyDescriptorBuilder);
+		// Attached messages reach the content handler as a single part and are only parsed when opened
+		tokenStream.setRecursionMode(RecursionMode.M_NO_RECURSE);
+		MimeStreamParser mime4jParser = new MimeStreamParser(tokenStream);
+		mime4jParser.setContentDecoding(parseProfile.getContentDecoding() == ContentDecoding.DECODED);
+		mime4jParser.setContentHandler(contentHandler);
+
 		mime4jParser.parse(rawEmailFile);
-		
+
+		return ((CustomContentHandler)contentHandler).getEmail();
+	}
+
+	private Email getParsedHeaders(BodyDescriptorBuilder bodyDescriptorBuilder) throws MimeException, IOException {
+		// Pulling tokens lets us stop at the end of the top level header without touching the body
+		MimeTokenStream tokenStream = new MimeTokenStream(parseProfile.getMimeConfig(), parseProfile.getDecodeMonitor(), bodyDescriptorBuilder);
+		tokenStream.parse(rawEmailFile);
+		for (EntityState state = tokenStream.getState(); state != EntityState.T_END_HEADER && state != EntityState.T_END_OF_STREAM; state = tokenStream.next()) {
+			if (state == EntityState.T_FIELD) {
+				contentHandler.field(tokenStream.getField());
+			}
+		}
 		return ((CustomContentHandler)contentHandler).getEmail();
 	}
 }
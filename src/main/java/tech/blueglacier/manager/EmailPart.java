@@ -0,0 +1,58 @@
+package tech.blueglacier.manager;
+
+import org.apache.james.mime4j.dom.Header;
+import org.apache.james.mime4j.stream.BodyDescriptor;
+import tech.blueglacier.classification.PartClassification;
+import tech.blueglacier.classification.PartClassifier;
+
+import java.io.InputStream;
+
+/**
+ * A single leaf part handed out by {@link EmailPartReader}. The content stream
+ * reads straight from the message and is only valid until the reader is moved
+ * to the next part; content that is never read is skipped without decoding.
+ */
+public class EmailPart {
+
+	private final BodyDescriptor bd;
+	private final Header header;
+	private final InputStream is;
+	private final PartClassifier partClassifier;
+	private PartClassification classification;
+
+	EmailPart(BodyDescriptor bd, Header header, InputStream is, PartClassifier partClassifier) {
+		this.bd = bd;
+		this.header = header;
+		this.is = is;
+		this.partClassifier = partClassifier;
+	}
+
+	public BodyDescriptor getBd() {
+		return bd;
+	}
+
+	/**
+	 * @return header fields of the part itself
+	 */
+	public Header getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return content of the part, decoded unless the profile asks for
+	 * {@link tech.blueglacier.configuration.ParseProfile.ContentDecoding#NONE}
+	 */
+	public InputStream getIs() {
+		return is;
+	}
+
+	/**
+	 * @return role and decoded file name of the part, worked out on first use
+	 */
+	public PartClassification getClassification() {
+		if (classification == null) {
+			classification = partClassifier.classify(bd);
+		}
+		return classification;
+	}
+}
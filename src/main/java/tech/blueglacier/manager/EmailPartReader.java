@@ -0,0 +1,108 @@
+package tech.blueglacier.manager;
+
+import tech.blueglacier.configuration.ParseProfile;
+import tech.blueglacier.configuration.ParseProfile.ContentDecoding;
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.dom.Header;
+import org.apache.james.mime4j.field.DefaultFieldParser;
+import org.apache.james.mime4j.message.DefaultBodyDescriptorBuilder;
+import org.apache.james.mime4j.message.HeaderImpl;
+import org.apache.james.mime4j.stream.BodyDescriptorBuilder;
+import org.apache.james.mime4j.stream.EntityState;
+import org.apache.james.mime4j.stream.MimeTokenStream;
+import org.apache.james.mime4j.stream.RecursionMode;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pull based alternative to {@link EmailParseManager}: the top level header
+ * and then every leaf part are read one at a time, on demand. Nothing is
+ * stored, a part whose content is not read is skipped without being decoded,
+ * and a caller may stop at any point. Attached messages are handed out as a
+ * single <code>message/rfc822</code> part. The input stream stays owned by the
+ * caller.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * EmailPartReader reader = new EmailPartReader(mailIn, profile);
+ * String subject = reader.getHeader().getField("Subject").getBody();
+ * for (EmailPart part = reader.nextPart(); part != null; part = reader.nextPart()) {
+ *     if (part.getBd().getMimeType().equals("text/plain")) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class EmailPartReader {
+
+	private final ParseProfile parseProfile;
+	private final MimeTokenStream tokenStream;
+	private final Header header;
+	private boolean headerRead;
+
+	public EmailPartReader(InputStream rawEmailFile) {
+		this(rawEmailFile, ParseProfile.DEFAULT);
+	}
+
+	public EmailPartReader(InputStream rawEmailFile, ParseProfile parseProfile) {
+		this.parseProfile = parseProfile;
+		this.header = new HeaderImpl();
+		BodyDescriptorBuilder bodyDescriptorBuilder = new DefaultBodyDescriptorBuilder(null, DefaultFieldParser.getParser(), parseProfile.getDecodeMonitor());
+		tokenStream = new MimeTokenStream(parseProfile.getMimeConfig(), parseProfile.getDecodeMonitor(), bodyDescriptorBuilder);
+		tokenStream.setRecursionMode(RecursionMode.M_NO_RECURSE);
+		tokenStream.parse(rawEmailFile);
+	}
+
+	/**
+	 * @return header fields of the message, reading them if no part has been requested yet
+	 */
+	public Header getHeader() throws MimeException, IOException {
+		readHeader();
+		return header;
+	}
+
+	/**
+	 * Moves to the next leaf part, skipping whatever is left of the current one.
+	 *
+	 * @return the next part or <code>null</code> once the message is exhausted
+	 */
+	public EmailPart nextPart() throws MimeException, IOException {
+		readHeader();
+		if (tokenStream.getState() == EntityState.T_END_OF_STREAM) {
+			return null;
+		}
+		// A message without multipart body is its own single part
+		Header partHeader = header;
+		for (EntityState state = tokenStream.next(); state != EntityState.T_END_OF_STREAM; state = tokenStream.next()) {
+			switch (state) {
+				case T_START_BODYPART:
+					partHeader = new HeaderImpl();
+					break;
+				case T_FIELD:
+					partHeader.addField(tokenStream.getField());
+					break;
+				case T_BODY:
+					InputStream is = parseProfile.getContentDecoding() != ContentDecoding.NONE
+							? tokenStream.getDecodedInputStream() : tokenStream.getInputStream();
+					return new EmailPart(tokenStream.getBodyDescriptor(), partHeader, is, parseProfile.getPartClassifier());
+				default:
+					break;
+			}
+		}
+		return null;
+	}
+
+	private void readHeader() throws MimeException, IOException {
+		if (headerRead) {
+			return;
+		}
+		for (EntityState state = tokenStream.getState(); state != EntityState.T_END_HEADER && state != EntityState.T_END_OF_STREAM; state = tokenStream.next()) {
+			if (state == EntityState.T_FIELD) {
+				header.addField(tokenStream.getField());
+			}
+		}
+		headerRead = true;
+	}
+}
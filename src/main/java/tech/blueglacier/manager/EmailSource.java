@@ -0,0 +1,13 @@
+package tech.blueglacier.manager;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Opens the raw message of a single batch item. The stream is opened on the
+ * worker thread parsing the item and closed once the item is parsed.
+ */
+public interface EmailSource {
+
+	InputStream open() throws IOException;
+}
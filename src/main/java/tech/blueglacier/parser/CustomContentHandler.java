@@ -1,9 +1,11 @@
 package tech.blueglacier.parser;
 
+import tech.blueglacier.configuration.ParseProfile;
 import tech.blueglacier.email.Email;
 import tech.blueglacier.email.EmailMessageType;
 import tech.blueglacier.email.EmailMessageType.EmailMessageTypeHierarchy;
 import tech.blueglacier.email.MultipartType;
+import tech.blueglacier.storage.StorageStrategy;
 import org.apache.james.mime4j.MimeException;
 import org.apache.james.mime4j.parser.AbstractContentHandler;
 import org.apache.james.mime4j.stream.BodyDescriptor;
@@ -17,7 +19,15 @@ public class CustomContentHandler extends AbstractContentHandler {
     private final Email email;
 
     public CustomContentHandler() {
-        this.email = new Email();
+        this(ParseProfile.DEFAULT);
+    }
+
+    public CustomContentHandler(StorageStrategy storageStrategy) {
+        this.email = new Email(storageStrategy);
+    }
+
+    public CustomContentHandler(ParseProfile parseProfile) {
+        this.email = new Email(parseProfile);
     }
 
     public Email getEmail() {
@@ -14,7 +14,6 @@ public abstract class AbstractStorageProvider implements StorageProvider {
      * Sole constructor.
      */
     protected AbstractStorageProvider() {
-    	totalBytesTransferred = 0;
     }
 
     /**
@@ -22,7 +21,8 @@ public abstract class AbstractStorageProvider implements StorageProvider {
      * {@link StorageProvider#createStorageOutputStream() createStorageOutputStream()}
      * and copies the content of the given input stream to that output stream.
      * It then calls {@link StorageOutputStream#toStorage()} on the output
-     * stream and returns this object.
+     * stream and returns this object. If storing fails the output stream is
+     * discarded.
      *
      * @param in
      *            stream containing the data to store.
@@ -33,14 +33,26 @@ public abstract class AbstractStorageProvider implements StorageProvider {
      */
     public final Storage store(InputStream in) throws IOException {
         StorageOutputStream out = createStorageOutputStream();
-        totalBytesTransferred = CodecUtil.copy(in, out);
-        return out.toStorage();
+        try {
+            CodecUtil.copy(in, out);
+            return out.toStorage();
+        } catch (IOException | RuntimeException e) {
+            DiscardableStorageOutputStream.discardQuietly(out);
+            throw e;
+        }
     }
-    
-    private int totalBytesTransferred;
 
-	public int getTotalBytesTransferred() {
-		return totalBytesTransferred;
-	}
+    /**
+     * Providers are shared by concurrent parses, so no per store count is
+     * kept. Use {@link tech.blueglacier.email.Attachment#getAttachmentSize()}
+     * for the size of a stored part.
+     *
+     * @return always 0
+     * @deprecated no longer updated by {@link #store(InputStream)}
+     */
+    @Deprecated
+    public int getTotalBytesTransferred() {
+        return 0;
+    }
 
 }
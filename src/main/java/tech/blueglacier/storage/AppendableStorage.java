@@ -0,0 +1,24 @@
+package tech.blueglacier.storage;
+
+import org.apache.james.mime4j.storage.Storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link Storage} whose content can be extended in place after it has been
+ * created, so that growing a stored part costs only the bytes being added.
+ */
+public interface AppendableStorage extends Storage {
+
+    /**
+     * Appends the remaining content of the given stream to this storage.
+     * Streams obtained from {@link #getInputStream()} before the call are not
+     * guaranteed to see the appended data.
+     *
+     * @param in stream containing the data to append.
+     * @return number of bytes appended.
+     * @throws IOException if an I/O error occurs.
+     */
+    int append(InputStream in) throws IOException;
+}
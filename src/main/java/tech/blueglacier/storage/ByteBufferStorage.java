@@ -0,0 +1,71 @@
+package tech.blueglacier.storage;
+
+import org.apache.james.mime4j.storage.Storage;
+import tech.blueglacier.codec.CodecUtil;
+import tech.blueglacier.util.ByteBufferInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link Storage} reading a buffer it does not own, such as a slice of a
+ * memory mapped message. Deleting only drops the reference to the buffer.
+ */
+public final class ByteBufferStorage implements TransferableStorage, RangedStorage, ViewableStorage {
+
+    private ByteBuffer buffer;
+
+    /**
+     * @param buffer content between its position and limit, not modified afterwards
+     */
+    public ByteBufferStorage(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException();
+        }
+        this.buffer = buffer.asReadOnlyBuffer();
+    }
+
+    public InputStream getInputStream() {
+        ByteBuffer content = buffer;
+        if (content == null)
+            throw new IllegalStateException("tech.blueglacier.storage has been deleted");
+
+        return new ByteBufferInputStream(content);
+    }
+
+    public InputStream getInputStream(long offset, long length) {
+        ByteBuffer content = buffer;
+        if (content == null)
+            throw new IllegalStateException("tech.blueglacier.storage has been deleted");
+        if (offset < 0 || length < 0)
+            throw new IllegalArgumentException();
+
+        ByteBuffer range = content.duplicate();
+        int start = (int) Math.min(offset, range.remaining());
+        range.position(range.position() + start);
+        range.limit(range.position() + (int) Math.min(length, range.remaining()));
+        return new ByteBufferInputStream(range);
+    }
+
+    public ByteBuffer getByteBuffer() {
+        ByteBuffer content = buffer;
+        if (content == null)
+            throw new IllegalStateException("tech.blueglacier.storage has been deleted");
+
+        return content.slice();
+    }
+
+    public long transferTo(WritableByteChannel target) throws IOException {
+        ByteBuffer content = buffer;
+        if (content == null)
+            throw new IllegalStateException("tech.blueglacier.storage has been deleted");
+
+        return CodecUtil.writeFully(content.duplicate(), target);
+    }
+
+    public void delete() {
+        buffer = null;
+    }
+}
@@ -0,0 +1,40 @@
+package tech.blueglacier.storage;
+
+import org.apache.james.mime4j.storage.DefaultStorageProvider;
+import org.apache.james.mime4j.storage.StorageProvider;
+import org.apache.james.mime4j.stream.BodyDescriptor;
+
+/**
+ * A {@link StorageStrategy} that stores every part using the provider
+ * configured through mime4j's {@link DefaultStorageProvider}.
+ * <p>
+ * As long as that still holds the threshold provider mime4j starts out with,
+ * the equivalent {@link ThresholdStorageProvider} over a
+ * {@link TempFileStorageProvider} is used instead, so that text bodies split
+ * over several parts can be appended to in place. Any provider set through
+ * {@link DefaultStorageProvider#setInstance(StorageProvider)} or the
+ * <code>org.apache.james.mime4j.defaultStorageProvider</code> system property
+ * is used as is.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * DefaultStorageProvider.setInstance(new MemoryStorageProvider());
+ * StorageStrategy strategy = new DefaultStorageStrategy();
+ * </pre>
+ */
+public class DefaultStorageStrategy implements StorageStrategy {
+
+    // What mime4j starts out with, unless a provider was already set when this class was loaded
+    static final StorageProvider BUILT_IN_DEFAULT = DefaultStorageProvider.getInstance();
+    private static final StorageProvider APPENDABLE_DEFAULT = new ThresholdStorageProvider(new TempFileStorageProvider(), 1024);
+
+    public StorageProvider getStorageProvider(BodyDescriptor bd) {
+        StorageProvider storageProvider = DefaultStorageProvider.getInstance();
+        if (storageProvider == BUILT_IN_DEFAULT
+                && storageProvider.getClass() == org.apache.james.mime4j.storage.ThresholdStorageProvider.class) {
+            return APPENDABLE_DEFAULT;
+        }
+        return storageProvider;
+    }
+}
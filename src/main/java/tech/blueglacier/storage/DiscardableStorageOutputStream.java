@@ -0,0 +1,37 @@
+package tech.blueglacier.storage;
+
+import org.apache.james.mime4j.storage.StorageOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Implemented by {@link StorageOutputStream}s which hold memory, budget or
+ * files until {@link StorageOutputStream#toStorage()} hands them over to a
+ * storage. A stream that is given up instead, because writing to it failed,
+ * has to be discarded to free them.
+ */
+public interface DiscardableStorageOutputStream {
+
+    /**
+     * Closes the stream and frees everything written to it. Does nothing once
+     * a storage has been created from the stream.
+     */
+    void discard();
+
+    /**
+     * Discards the given stream if it supports it and otherwise only closes it,
+     * ignoring any error.
+     */
+    static void discardQuietly(OutputStream out) {
+        if (out instanceof DiscardableStorageOutputStream) {
+            ((DiscardableStorageOutputStream) out).discard();
+        } else if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // nothing left to free
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package tech.blueglacier.storage;
+
+import org.apache.james.mime4j.storage.StorageProvider;
+import org.apache.james.mime4j.stream.BodyDescriptor;
+
+/**
+ * A {@link StorageStrategy} that stores every part using the same
+ * {@link StorageProvider}.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * StorageStrategy strategy = new FixedStorageStrategy(new MemoryStorageProvider());
+ * </pre>
+ */
+public class FixedStorageStrategy implements StorageStrategy {
+
+    private final StorageProvider storageProvider;
+
+    public FixedStorageStrategy(StorageProvider storageProvider) {
+        if (storageProvider == null) {
+            throw new IllegalArgumentException();
+        }
+        this.storageProvider = storageProvider;
+    }
+
+    public StorageProvider getStorageProvider(BodyDescriptor bd) {
+        return storageProvider;
+    }
+}
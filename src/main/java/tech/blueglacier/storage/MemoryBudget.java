@@ -0,0 +1,165 @@
+package tech.blueglacier.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on the memory held by in-memory storage, shared by any number of
+ * providers and concurrent parses. Storage reserves from the budget before
+ * keeping data in memory, writes it elsewhere when the reservation fails, and
+ * releases it on delete, so memory use stays bounded however many messages
+ * are in flight.
+ * <p>
+ * What a thread reserves while {@link #track() tracked}, e.g. for the
+ * duration of a parse, is also counted as in flight, apart from the memory
+ * held by storage which was handed on.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * MemoryBudget budget = new MemoryBudget(256 * 1024 * 1024);
+ * StorageProvider provider = new ThresholdStorageProvider(new TempFileStorageProvider(), 64 * 1024, budget);
+ * </pre>
+ */
+public final class MemoryBudget {
+
+    private final long maxBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final ThreadLocal<Tracking> currentTracking = new ThreadLocal<>();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final Object releaseMonitor = new Object();
+
+    /**
+     * @param maxBytes number of bytes which may be reserved at the same time.
+     */
+    public MemoryBudget(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Reserves the given number of bytes if they are all available.
+     *
+     * @return whether the bytes were reserved.
+     */
+    public boolean tryReserve(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException();
+        }
+        long used;
+        do {
+            used = usedBytes.get();
+            if (used + bytes > maxBytes) {
+                return false;
+            }
+        } while (!usedBytes.compareAndSet(used, used + bytes));
+        track(bytes);
+        return true;
+    }
+
+    /**
+     * Returns bytes previously reserved by {@link #tryReserve(long)}.
+     */
+    public void release(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException();
+        }
+        usedBytes.addAndGet(-bytes);
+        track(-bytes);
+        if (waiters.get() > 0) {
+            synchronized (releaseMonitor) {
+                releaseMonitor.notifyAll();
+            }
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return number of bytes currently reserved.
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public long getAvailableBytes() {
+        return Math.max(0, maxBytes - usedBytes.get());
+    }
+
+    /**
+     * @return number of bytes currently reserved by tracked threads.
+     */
+    public long getInFlightBytes() {
+        return Math.max(0, inFlightBytes.get());
+    }
+
+    /**
+     * Counts the bytes the calling thread reserves and releases as in flight
+     * until the returned tracking is closed.
+     *
+     * @throws IllegalStateException if the calling thread is tracked already.
+     */
+    public Tracking track() {
+        if (currentTracking.get() != null) {
+            throw new IllegalStateException("thread is tracked already");
+        }
+        Tracking tracking = new Tracking();
+        currentTracking.set(tracking);
+        return tracking;
+    }
+
+    private void track(long bytes) {
+        Tracking tracking = currentTracking.get();
+        if (tracking != null) {
+            tracking.bytes += bytes;
+            inFlightBytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Waits until some memory is available or the timeout expires.
+     *
+     * @return whether memory is available.
+     */
+    public boolean awaitAvailable(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waiters.incrementAndGet();
+        try {
+            synchronized (releaseMonitor) {
+                long remaining;
+                while (getAvailableBytes() == 0 && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(releaseMonitor, remaining);
+                }
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+        return getAvailableBytes() > 0;
+    }
+
+    /**
+     * Tracking of the thread which called {@link #track()}; closing it stops
+     * counting that thread's reservations as in flight.
+     */
+    public final class Tracking implements AutoCloseable {
+
+        private long bytes;
+
+        private Tracking() {
+        }
+
+        public void close() {
+            if (currentTracking.get() == this) {
+                currentTracking.remove();
+                inFlightBytes.addAndGet(-bytes);
+                bytes = 0;
+            }
+        }
+    }
+}
@@ -4,9 +4,14 @@ import org.apache.james.mime4j.storage.Storage;
 import org.apache.james.mime4j.storage.StorageOutputStream;
 import org.apache.james.mime4j.storage.StorageProvider;
 import org.apache.james.mime4j.util.ByteArrayBuffer;
+import tech.blueglacier.codec.CodecUtil;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 /**
  * A {@link StorageProvider} that stores the data entirely in memory.
@@ -45,9 +50,9 @@ public class MemoryStorageProvider extends AbstractStorageProvider {
         }
     }
 
-    static final class MemoryStorage implements Storage {
+    static final class MemoryStorage implements AppendableStorage, TransferableStorage, RangedStorage, ViewableStorage {
         private byte[] data;
-        private final int count;
+        private int count;
 
         public MemoryStorage(byte[] data, int count) {
             this.data = data;
@@ -61,9 +66,60 @@ public class MemoryStorageProvider extends AbstractStorageProvider {
             return new ByteArrayInputStream(data, 0, count);
         }
 
+        public InputStream getInputStream(long offset, long length) {
+            if (data == null)
+                throw new IllegalStateException("tech.blueglacier.storage has been deleted");
+            if (offset < 0 || length < 0)
+                throw new IllegalArgumentException();
+
+            int start = (int) Math.min(offset, count);
+            return new ByteArrayInputStream(data, start, (int) Math.min(length, count - start));
+        }
+
         public void delete() {
             data = null;
         }
+
+        public int append(InputStream in) throws IOException {
+            final byte[] buffer = new byte[1024];
+            int inputLength;
+            int totalBytesAppended = 0;
+            while (-1 != (inputLength = in.read(buffer))) {
+                append(buffer, 0, inputLength);
+                totalBytesAppended += inputLength;
+            }
+            return totalBytesAppended;
+        }
+
+        public ByteBuffer getByteBuffer() {
+            if (data == null)
+                throw new IllegalStateException("tech.blueglacier.storage has been deleted");
+
+            return ByteBuffer.wrap(data, 0, count).slice().asReadOnlyBuffer();
+        }
+
+        public long transferTo(WritableByteChannel target) throws IOException {
+            if (data == null)
+                throw new IllegalStateException("tech.blueglacier.storage has been deleted");
+
+            return CodecUtil.writeFully(ByteBuffer.wrap(data, 0, count), target);
+        }
+
+        void append(byte[] buffer, int offset, int length) {
+            if (data == null)
+                throw new IllegalStateException("tech.blueglacier.storage has been deleted");
+
+            if (count + length > data.length) {
+                // Doubling keeps repeated appends linear in the total size
+                data = Arrays.copyOf(data, Math.max(data.length << 1, count + length));
+            }
+            System.arraycopy(buffer, offset, data, count, length);
+            count += length;
+        }
+
+        int length() {
+            return count;
+        }
     }
 
 }
@@ -0,0 +1,90 @@
+package tech.blueglacier.storage;
+
+import org.apache.james.mime4j.message.MaximalBodyDescriptor;
+import org.apache.james.mime4j.storage.StorageProvider;
+import org.apache.james.mime4j.stream.BodyDescriptor;
+import tech.blueglacier.util.Common;
+
+/**
+ * A {@link StorageStrategy} choosing the {@link StorageProvider} by the type
+ * and declared size of a part. Text parts (plain, html and calendar) not
+ * marked as attachment are kept by the text provider, parts declaring a size
+ * above the large part threshold go straight to the large part provider and
+ * everything else is stored by the attachment provider.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * StorageProvider tempStore = new TempFileStorageProvider();
+ * StorageStrategy strategy = new PartTypeStorageStrategy(new MemoryStorageProvider(),
+ *         new ThresholdStorageProvider(tempStore, 4096), tempStore, 1024 * 1024);
+ * </pre>
+ */
+public class PartTypeStorageStrategy implements StorageStrategy {
+
+    private static final int DEFAULT_TEXT_THRESHOLD = 64 * 1024;
+    private static final long DEFAULT_LARGE_PART_THRESHOLD = 1024 * 1024;
+
+    private final StorageProvider textProvider;
+    private final StorageProvider attachmentProvider;
+    private final StorageProvider largePartProvider;
+    private final long largePartThreshold;
+
+    /**
+     * Keeps text parts up to 64 KB and other parts up to 2 KB in memory,
+     * writes parts declaring more than 1 MB directly to temporary files.
+     */
+    public PartTypeStorageStrategy() {
+        this(new TempFileStorageProvider());
+    }
+
+    /**
+     * Same thresholds as {@link #PartTypeStorageStrategy()} using the given
+     * provider as disk back-end.
+     */
+    public PartTypeStorageStrategy(StorageProvider diskProvider) {
+        this(new ThresholdStorageProvider(diskProvider, DEFAULT_TEXT_THRESHOLD),
+                new ThresholdStorageProvider(diskProvider), diskProvider, DEFAULT_LARGE_PART_THRESHOLD);
+    }
+
+    /**
+     * @param textProvider       stores text/plain, text/html and text/calendar parts
+     *                           which are not disposed as attachment.
+     * @param attachmentProvider stores all other parts.
+     * @param largePartProvider  stores parts whose declared size exceeds
+     *                           <code>largePartThreshold</code>.
+     * @param largePartThreshold declared size in bytes above which the large
+     *                           part provider is used.
+     */
+    public PartTypeStorageStrategy(StorageProvider textProvider, StorageProvider attachmentProvider,
+                                   StorageProvider largePartProvider, long largePartThreshold) {
+        if (textProvider == null || attachmentProvider == null || largePartProvider == null
+                || largePartThreshold < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.textProvider = textProvider;
+        this.attachmentProvider = attachmentProvider;
+        this.largePartProvider = largePartProvider;
+        this.largePartThreshold = largePartThreshold;
+    }
+
+    public StorageProvider getStorageProvider(BodyDescriptor bd) {
+        if (Common.getDeclaredSize(bd) > largePartThreshold) {
+            return largePartProvider;
+        }
+        if (isTextPart(bd)) {
+            return textProvider;
+        }
+        return attachmentProvider;
+    }
+
+    private boolean isTextPart(BodyDescriptor bd) {
+        if (bd instanceof MaximalBodyDescriptor
+                && "attachment".equalsIgnoreCase(((MaximalBodyDescriptor) bd).getContentDispositionType())) {
+            return false;
+        }
+        String mimeType = bd.getMimeType();
+        return "text/plain".equalsIgnoreCase(mimeType) || "text/html".equalsIgnoreCase(mimeType)
+                || "text/calendar".equalsIgnoreCase(mimeType);
+    }
+}
@@ -0,0 +1,22 @@
+package tech.blueglacier.storage;
+
+import org.apache.james.mime4j.storage.Storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link Storage} able to start reading at any offset without reading
+ * the preceding content.
+ */
+public interface RangedStorage extends Storage {
+
+    /**
+     * @param offset first byte to read, not negative.
+     * @param length maximum number of bytes to read, not negative; the stream
+     *               ends early at the end of the content.
+     * @return a stream over the requested range.
+     * @throws IOException if an I/O error occurs.
+     */
+    InputStream getInputStream(long offset, long length) throws IOException;
+}
@@ -0,0 +1,373 @@
+package tech.blueglacier.storage;
+
+import org.apache.james.mime4j.storage.Storage;
+import org.apache.james.mime4j.storage.StorageOutputStream;
+import org.apache.james.mime4j.storage.StorageProvider;
+import tech.blueglacier.codec.CodecUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link StorageProvider} keeping the data off the Java heap, in direct
+ * memory slabs which are pooled by size class and reused across messages.
+ * A part starts in a 4 KB slab and continues in successively larger ones up
+ * to 1 MB, so nothing is ever copied to grow a part. Once the slabs allocated
+ * by the provider reach the configured cap, idle slabs of other size classes
+ * are given up to make room, and only then is the remainder of a part
+ * written to an overflow provider instead.
+ * <p>
+ * Slabs return to the pool on {@link Storage#delete()}, as called by
+ * <code>Attachment.delete()</code> and <code>Email.close()</code>. Streams of
+ * a deleted storage fail on their next read rather than see a recycled slab.
+ * Storages which are never deleted keep their slabs until the provider is
+ * discarded.
+ * <p>
+ * The cap is a soft one: the direct memory of idle slabs given up to make room
+ * is only freed once they are garbage collected, so off-heap usage may exceed
+ * the cap for a while after slabs were reclaimed.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * StorageProvider slabs = new SlabStorageProvider(512 * 1024 * 1024, new TempFileStorageProvider());
+ * StorageStrategy strategy = new FixedStorageStrategy(slabs);
+ * </pre>
+ */
+public class SlabStorageProvider extends AbstractStorageProvider {
+
+    private static final int[] SIZE_CLASSES = {4 * 1024, 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
+
+    private final long maxAllocatedBytes;
+    private final StorageProvider overflowProvider;
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final List<Queue<ByteBuffer>> pools = new ArrayList<>(SIZE_CLASSES.length);
+
+    /**
+     * Overflows to temporary files.
+     *
+     * @param maxAllocatedBytes soft cap on the direct memory allocated for slabs.
+     */
+    public SlabStorageProvider(long maxAllocatedBytes) {
+        this(maxAllocatedBytes, new TempFileStorageProvider());
+    }
+
+    /**
+     * @param maxAllocatedBytes soft cap on the direct memory allocated for slabs.
+     * @param overflowProvider  stores the remainder of parts once the cap is reached.
+     */
+    public SlabStorageProvider(long maxAllocatedBytes, StorageProvider overflowProvider) {
+        if (maxAllocatedBytes < 0 || overflowProvider == null) {
+            throw new IllegalArgumentException();
+        }
+        this.maxAllocatedBytes = maxAllocatedBytes;
+        this.overflowProvider = overflowProvider;
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            pools.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * @return direct memory allocated for slabs, whether in use or pooled; not
+     * counting reclaimed slabs which are yet to be garbage collected.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * @return direct memory of the slabs held by storages not yet deleted.
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public StorageOutputStream createStorageOutputStream() {
+        return new SlabStorageOutputStream();
+    }
+
+    // A pooled or newly allocated slab of the given class, null once the cap is reached
+    private ByteBuffer acquire(int sizeClass) {
+        int size = SIZE_CLASSES[sizeClass];
+        ByteBuffer slab = pools.get(sizeClass).poll();
+        if (slab == null) {
+            if (!tryAllocate(size) && !(reclaimIdle(sizeClass, size) && tryAllocate(size))) {
+                return null;
+            }
+            slab = ByteBuffer.allocateDirect(size);
+        }
+        usedBytes.addAndGet(size);
+        return slab;
+    }
+
+    private boolean tryAllocate(int size) {
+        long allocated;
+        do {
+            allocated = allocatedBytes.get();
+            if (allocated + size > maxAllocatedBytes) {
+                return false;
+            }
+        } while (!allocatedBytes.compareAndSet(allocated, allocated + size));
+        return true;
+    }
+
+    // Gives up pooled slabs of other classes, largest first, until a slab of the given size fits under the cap
+    private boolean reclaimIdle(int sizeClass, int size) {
+        for (int other = SIZE_CLASSES.length - 1; other >= 0; other--) {
+            if (other == sizeClass) {
+                continue;
+            }
+            ByteBuffer idle;
+            while (allocatedBytes.get() + size > maxAllocatedBytes && (idle = pools.get(other).poll()) != null) {
+                // The direct memory itself is freed once the buffer is garbage collected
+                allocatedBytes.addAndGet(-idle.capacity());
+            }
+        }
+        return allocatedBytes.get() + size <= maxAllocatedBytes;
+    }
+
+    private void release(ByteBuffer slab) {
+        int size = slab.capacity();
+        for (int sizeClass = 0; sizeClass < SIZE_CLASSES.length; sizeClass++) {
+            if (SIZE_CLASSES[sizeClass] == size) {
+                slab.clear();
+                usedBytes.addAndGet(-size);
+                pools.get(sizeClass).offer(slab);
+                return;
+            }
+        }
+    }
+
+    private final class SlabStorageOutputStream extends StorageOutputStream implements DiscardableStorageOutputStream {
+
+        private final List<ByteBuffer> slabs = new ArrayList<>();
+        private ByteBuffer current;
+        private StorageOutputStream overflow;
+        // Set once the slabs went to a storage or back to the pool
+        private boolean finished;
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (overflow != null) {
+                overflow.close();
+            }
+        }
+
+        @Override
+        protected void write0(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0 && overflow == null) {
+                if (current == null || !current.hasRemaining()) {
+                    current = acquire(Math.min(slabs.size(), SIZE_CLASSES.length - 1));
+                    if (current == null) {
+                        overflow = overflowProvider.createStorageOutputStream();
+                        break;
+                    }
+                    slabs.add(current);
+                }
+                int n = Math.min(length, current.remaining());
+                current.put(buffer, offset, n);
+                offset += n;
+                length -= n;
+            }
+            if (length > 0) {
+                overflow.write(buffer, offset, length);
+            }
+        }
+
+        @Override
+        protected Storage toStorage0() throws IOException {
+            if (finished) {
+                throw new IllegalStateException("storage output stream has been discarded");
+            }
+            Storage overflowStorage = overflow == null ? null : overflow.toStorage();
+            finished = true;
+            ByteBuffer[] filled = new ByteBuffer[slabs.size()];
+            for (int i = 0; i < filled.length; i++) {
+                filled[i] = (ByteBuffer) slabs.get(i).flip();
+            }
+            return new SlabStorage(filled, overflowStorage);
+        }
+
+        public void discard() {
+            if (!finished) {
+                finished = true;
+                try {
+                    super.close();
+                } catch (IOException e) {
+                    // closing the slabs only marks the stream closed
+                }
+                for (ByteBuffer slab : slabs) {
+                    release(slab);
+                }
+                slabs.clear();
+                current = null;
+                DiscardableStorageOutputStream.discardQuietly(overflow);
+            }
+        }
+    }
+
+    private final class SlabStorage implements TransferableStorage, RangedStorage {
+
+        // Null once deleted; slabs are only read holding this storage's lock, so delete cannot recycle one mid read
+        private ByteBuffer[] slabs;
+        private final Storage overflow;
+        private final long slabLength;
+
+        private SlabStorage(ByteBuffer[] slabs, Storage overflow) {
+            this.slabs = slabs;
+            this.overflow = overflow;
+            long length = 0;
+            for (ByteBuffer slab : this.slabs) {
+                length += slab.limit();
+            }
+            this.slabLength = length;
+        }
+
+        public InputStream getInputStream() throws IOException {
+            return getInputStream(0, Long.MAX_VALUE);
+        }
+
+        public InputStream getInputStream(long offset, long length) throws IOException {
+            if (offset < 0 || length < 0) {
+                throw new IllegalArgumentException();
+            }
+
+            InputStream slabStream;
+            synchronized (this) {
+                slabStream = new SlabInputStream(Math.min(offset, slabLength), Math.min(length, Math.max(0, slabLength - offset)));
+            }
+            if (overflow == null || (offset < slabLength && length <= slabLength - offset)) {
+                return slabStream;
+            }
+            long overflowOffset = Math.max(0, offset - slabLength);
+            long overflowLength = offset < slabLength ? length - (slabLength - offset) : length;
+            InputStream overflowStream = overflow instanceof RangedStorage
+                    ? ((RangedStorage) overflow).getInputStream(overflowOffset, overflowLength)
+                    : CodecUtil.range(overflow.getInputStream(), overflowOffset, overflowLength);
+            return new SequenceInputStream(slabStream, overflowStream);
+        }
+
+        public long transferTo(WritableByteChannel target) throws IOException {
+            long totalBytesWritten = 0;
+            synchronized (this) {
+                for (ByteBuffer slab : checkNotDeleted()) {
+                    totalBytesWritten += CodecUtil.writeFully(slab.duplicate(), target);
+                }
+            }
+            if (overflow instanceof TransferableStorage) {
+                totalBytesWritten += ((TransferableStorage) overflow).transferTo(target);
+            } else if (overflow != null) {
+                try (InputStream overflowStream = overflow.getInputStream()) {
+                    totalBytesWritten += CodecUtil.copy(overflowStream, Channels.newOutputStream(target));
+                }
+            }
+            return totalBytesWritten;
+        }
+
+        public synchronized void delete() {
+            if (slabs != null) {
+                ByteBuffer[] released = slabs;
+                slabs = null;
+                for (ByteBuffer slab : released) {
+                    release(slab);
+                }
+                if (overflow != null) {
+                    overflow.delete();
+                }
+            }
+        }
+
+        // Only called holding this storage's lock
+        private ByteBuffer[] checkNotDeleted() {
+            if (slabs == null) {
+                throw new IllegalStateException("storage has been deleted");
+            }
+            return slabs;
+        }
+
+        /**
+         * Reads a range of the slabs under the storage's lock, failing instead
+         * of reading recycled slabs once the storage is deleted.
+         */
+        private final class SlabInputStream extends InputStream {
+
+            private int slabIndex;
+            private int slabPosition;
+            private long remaining;
+
+            private SlabInputStream(long offset, long length) {
+                ByteBuffer[] current = checkNotDeleted();
+                while (slabIndex < current.length && offset >= current[slabIndex].limit()) {
+                    offset -= current[slabIndex].limit();
+                    slabIndex++;
+                }
+                this.slabPosition = (int) offset;
+                this.remaining = length;
+            }
+
+            @Override
+            public int read() {
+                synchronized (SlabStorage.this) {
+                    ByteBuffer slab = nextSlab();
+                    if (slab == null) {
+                        return -1;
+                    }
+                    remaining--;
+                    return slab.get(slabPosition++) & 0xFF;
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                synchronized (SlabStorage.this) {
+                    ByteBuffer slab = nextSlab();
+                    if (slab == null) {
+                        return -1;
+                    }
+                    slab = slab.duplicate();
+                    slab.position(slabPosition);
+                    int n = (int) Math.min(Math.min(len, slab.remaining()), remaining);
+                    slab.get(b, off, n);
+                    slabPosition += n;
+                    remaining -= n;
+                    return n;
+                }
+            }
+
+            // The slab holding the next byte to read, null at the end of the range
+            private ByteBuffer nextSlab() {
+                ByteBuffer[] current = checkNotDeleted();
+                while (slabIndex < current.length && slabPosition >= current[slabIndex].limit()) {
+                    slabIndex++;
+                    slabPosition = 0;
+                }
+                return remaining == 0 || slabIndex >= current.length ? null : current[slabIndex];
+            }
+
+            @Override
+            public int available() {
+                synchronized (SlabStorage.this) {
+                    ByteBuffer[] current = slabs;
+                    if (current == null || slabIndex >= current.length) {
+                        return 0;
+                    }
+                    return (int) Math.min(remaining, current[slabIndex].limit() - slabPosition);
+                }
+            }
+        }
+    }
+}
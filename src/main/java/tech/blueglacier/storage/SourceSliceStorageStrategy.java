@@ -0,0 +1,182 @@
+package tech.blueglacier.storage;
+
+import org.apache.james.mime4j.storage.Storage;
+import org.apache.james.mime4j.storage.StorageOutputStream;
+import org.apache.james.mime4j.storage.StorageProvider;
+import org.apache.james.mime4j.stream.BodyDescriptor;
+import tech.blueglacier.codec.CodecUtil;
+import tech.blueglacier.configuration.ParseProfile.ContentDecoding;
+import tech.blueglacier.util.ByteBufferInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link StorageStrategy} for a message held in a single buffer, keeping
+ * parts whose content is stored exactly as found in the message as slices of
+ * that buffer instead of copies. The message has to be parsed from
+ * {@link #getInputStream()}: the first bytes written for such a part are
+ * looked up in the buffer just before the position read up to, going back no
+ * further than the end of the previous slice and {@value #SEARCH_WINDOW}
+ * bytes, and every following byte is compared as it is written. Parts not
+ * found that way are copied to the provider of the wrapped strategy after
+ * all, as are parts which are decoded.
+ * <p>
+ * Meant for a single parse, see
+ * {@link tech.blueglacier.manager.EmailParseManager#EmailParseManager(ByteBuffer, tech.blueglacier.configuration.ParseProfile)};
+ * the buffer must not change as long as the parsed email is in use.
+ */
+public class SourceSliceStorageStrategy implements StorageStrategy {
+
+    /**
+     * How far before the position read up to the start of a part is looked for;
+     * well beyond what the parser reads ahead unless it meets very long lines.
+     */
+    public static final int SEARCH_WINDOW = 64 * 1024;
+
+    private final ByteBuffer source;
+    private final ByteBufferInputStream sourceStream;
+    private final StorageStrategy storageStrategy;
+    private final ContentDecoding contentDecoding;
+    private int searchStart;
+
+    /**
+     * @param source          the whole message between position and limit
+     * @param storageStrategy strategy for parts which cannot be sliced
+     * @param contentDecoding content decoding the message is parsed with
+     */
+    public SourceSliceStorageStrategy(ByteBuffer source, StorageStrategy storageStrategy, ContentDecoding contentDecoding) {
+        if (source == null || storageStrategy == null || contentDecoding == null) {
+            throw new IllegalArgumentException();
+        }
+        this.source = source.slice().asReadOnlyBuffer();
+        this.sourceStream = new ByteBufferInputStream(this.source);
+        this.storageStrategy = storageStrategy;
+        this.contentDecoding = contentDecoding;
+    }
+
+    /**
+     * @return the stream to parse the message from; there is only one
+     */
+    public InputStream getInputStream() {
+        return sourceStream;
+    }
+
+    public ContentDecoding getContentDecoding() {
+        return contentDecoding;
+    }
+
+    public StorageProvider getStorageProvider(BodyDescriptor bd) {
+        StorageProvider storageProvider = storageStrategy.getStorageProvider(bd);
+        if (contentDecoding == ContentDecoding.DECODED && CodecUtil.isDecodingRequired(bd.getTransferEncoding())) {
+            return storageProvider;
+        }
+        return new SliceStorageProvider(storageProvider);
+    }
+
+    // Offset of the chunk in the source, -1 if not found. It has been read by the parser already,
+    // shortly before the current position, so the last match in a window ending there is taken
+    private int locate(byte[] chunk, int offset, int length) {
+        int last = Math.min(sourceStream.getPosition(), source.limit()) - length;
+        int first = Math.max(searchStart, last - SEARCH_WINDOW);
+        byte firstByte = chunk[offset];
+        for (int candidate = last; candidate >= first; candidate--) {
+            if (source.get(candidate) == firstByte && matches(candidate + 1, chunk, offset + 1, length - 1)) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int sourceOffset, byte[] chunk, int offset, int length) {
+        if (sourceOffset + length > source.limit()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (source.get(sourceOffset + i) != chunk[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer slice(int start, int length) {
+        ByteBuffer slice = source.duplicate();
+        slice.position(start).limit(start + length);
+        return slice.slice();
+    }
+
+    private final class SliceStorageProvider extends AbstractStorageProvider {
+
+        private final StorageProvider fallbackProvider;
+
+        private SliceStorageProvider(StorageProvider fallbackProvider) {
+            this.fallbackProvider = fallbackProvider;
+        }
+
+        public StorageOutputStream createStorageOutputStream() throws IOException {
+            return new SliceStorageOutputStream(fallbackProvider);
+        }
+    }
+
+    private final class SliceStorageOutputStream extends StorageOutputStream implements DiscardableStorageOutputStream {
+
+        private final StorageProvider fallbackProvider;
+        private StorageOutputStream fallback;
+        private int start = -1;
+        private int length;
+
+        private SliceStorageOutputStream(StorageProvider fallbackProvider) {
+            this.fallbackProvider = fallbackProvider;
+        }
+
+        @Override
+        protected void write0(byte[] buffer, int offset, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            if (fallback == null) {
+                if (start < 0) {
+                    start = locate(buffer, offset, len);
+                    if (start >= 0) {
+                        length = len;
+                        return;
+                    }
+                } else if (matches(start + length, buffer, offset, len)) {
+                    length += len;
+                    return;
+                }
+                startFallback();
+            }
+            fallback.write(buffer, offset, len);
+        }
+
+        // Copies what matched so far, all of which is in the source
+        private void startFallback() throws IOException {
+            fallback = fallbackProvider.createStorageOutputStream();
+            if (length > 0) {
+                byte[] matched = new byte[length];
+                slice(start, length).get(matched);
+                fallback.write(matched);
+            }
+        }
+
+        @Override
+        protected Storage toStorage0() throws IOException {
+            if (fallback == null && length > 0) {
+                searchStart = start + length;
+                return new ByteBufferStorage(slice(start, length));
+            }
+            if (fallback == null) {
+                fallback = fallbackProvider.createStorageOutputStream();
+            }
+            return fallback.toStorage();
+        }
+
+        // A slice holds nothing of its own, only the fallback may have to be freed
+        public void discard() {
+            DiscardableStorageOutputStream.discardQuietly(fallback);
+        }
+    }
+}
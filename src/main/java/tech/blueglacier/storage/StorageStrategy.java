@@ -0,0 +1,21 @@
+package tech.blueglacier.storage;
+
+import org.apache.james.mime4j.storage.StorageProvider;
+import org.apache.james.mime4j.stream.BodyDescriptor;
+
+/**
+ * Decides which {@link StorageProvider} is used to store the content of a
+ * single mime part. A strategy is consulted once per part, so implementations
+ * can pick memory, threshold or disk backed storage depending on the part's
+ * type and declared size.
+ * <p>
+ * Implementations are shared across parses and must be thread safe.
+ */
+public interface StorageStrategy {
+
+    /**
+     * @param bd descriptor of the mime part about to be stored
+     * @return the storage provider to be used for the given part, never <code>null</code>
+     */
+    StorageProvider getStorageProvider(BodyDescriptor bd);
+}
@@ -4,12 +4,18 @@ import org.apache.commons.io.FileUtils;
 import org.apache.james.mime4j.storage.Storage;
 import org.apache.james.mime4j.storage.StorageOutputStream;
 import org.apache.james.mime4j.storage.StorageProvider;
+import tech.blueglacier.codec.CodecUtil;
+import tech.blueglacier.util.ByteBufferInputStream;
+import tech.blueglacier.util.ChannelRangeInputStream;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.nio.file.StandardOpenOption;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A {@link StorageProvider} that stores the data in temporary files. The files
@@ -23,6 +29,10 @@ import java.util.Set;
  * StorageProvider provider = new TempFileStorageProvider(directory);
  * DefaultStorageProvider.setInstance(provider);
  * </pre>
+ * <p>
+ * Files of at least a given size can optionally be read through a read-only
+ * memory mapping shared by all readers of the file, so that repeated reads of
+ * a large part are served from the page cache without read calls.
  */
 public class TempFileStorageProvider extends AbstractStorageProvider {
 
@@ -31,6 +41,7 @@ public class TempFileStorageProvider extends AbstractStorageProvider {
     private final String prefix;
     private final String suffix;
     private final File directory;
+    private final long mappedReadThreshold;
 
     /**
      * Equivalent to using constructor
@@ -65,6 +76,18 @@ public class TempFileStorageProvider extends AbstractStorageProvider {
      *                                  is not <code>null</code>).
      */
     public TempFileStorageProvider(String prefix, String suffix, File directory) {
+        this(prefix, suffix, directory, -1);
+    }
+
+    /**
+     * Same as {@link #TempFileStorageProvider(String, String, File)}, reading
+     * files through a memory mapping once they hold at least
+     * <code>mappedReadThreshold</code> bytes.
+     *
+     * @param mappedReadThreshold size in bytes from which files are mapped for
+     *                            reading, or -1 to never map them.
+     */
+    public TempFileStorageProvider(String prefix, String suffix, File directory, long mappedReadThreshold) {
         if (prefix == null || prefix.length() < 3) {
             throw new IllegalArgumentException("invalid prefix");
         }
@@ -80,21 +103,26 @@ public class TempFileStorageProvider extends AbstractStorageProvider {
         this.prefix = prefix;
         this.suffix = suffix;
         this.directory = directory;
+        this.mappedReadThreshold = mappedReadThreshold;
     }
 
     public StorageOutputStream createStorageOutputStream() throws IOException {
         File file = File.createTempFile(prefix, suffix, directory);
         file.deleteOnExit();
 
-        return new TempFileStorageOutputStream(file);
+        return new TempFileStorageOutputStream(file, mappedReadThreshold);
     }
 
-    private static final class TempFileStorageOutputStream extends StorageOutputStream {
+    private static final class TempFileStorageOutputStream extends StorageOutputStream implements DiscardableStorageOutputStream {
         private final File file;
+        private final long mappedReadThreshold;
         private final OutputStream out;
+        private boolean stored;
+        private boolean discarded;
 
-        public TempFileStorageOutputStream(File file) throws IOException {
+        public TempFileStorageOutputStream(File file, long mappedReadThreshold) throws IOException {
             this.file = file;
+            this.mappedReadThreshold = mappedReadThreshold;
             this.out = Files.newOutputStream(file.toPath());
         }
 
@@ -111,53 +139,186 @@ public class TempFileStorageProvider extends AbstractStorageProvider {
 
         @Override
         protected Storage toStorage0() {
+            if (discarded) {
+                throw new IllegalStateException("storage output stream has been discarded");
+            }
             // out has already been closed because toStorage calls close
-            return new TempFileStorage(file);
+            stored = true;
+            return new TempFileStorage(file, mappedReadThreshold);
+        }
+
+        public void discard() {
+            if (!stored && !discarded) {
+                discarded = true;
+                try {
+                    close();
+                } catch (IOException e) {
+                    // the file is deleted all the same
+                }
+                file.delete();
+            }
         }
     }
 
-    private static final class TempFileStorage implements Storage {
+    private static final class TempFileStorage implements AppendableStorage, TransferableStorage, RangedStorage, ViewableStorage {
 
         private File file;
+        private final long mappedReadThreshold;
+        // Created on first mapped read and dropped whenever the file changes
+        private volatile ByteBuffer mapping;
 
-        private static final Set<File> filesToDelete = new HashSet<>();
+        private static final Set<File> filesToDelete = ConcurrentHashMap.newKeySet();
 
-        public TempFileStorage(File file) {
+        public TempFileStorage(File file, long mappedReadThreshold) {
             this.file = file;
+            this.mappedReadThreshold = mappedReadThreshold;
         }
 
         public void delete() {
             // deleting a file might not immediately succeed if there are still
             // streams left open (especially under Windows). so we keep track of
-            // the files that have to be deleted and try to delete all these
-            // files each time this method gets invoked.
+            // the files that could not be deleted and retry them each time this
+            // method gets invoked.
 
-            // a better but more complicated solution would be to start a
-            // separate thread that tries to delete the files periodically.
+            // the pending files are kept in a concurrent set so that parses
+            // running in parallel neither wait for each other nor retry the
+            // whole backlog while holding a shared lock.
 
-            synchronized (filesToDelete) {
-                if (file != null) {
-                    filesToDelete.add(file);
-                    file = null;
-                }
+            File fileToDelete = file;
+            file = null;
+            mapping = null;
+            if (fileToDelete != null && !tryDelete(fileToDelete)) {
+                filesToDelete.add(fileToDelete);
+            }
 
-                for (Iterator<File> iterator = filesToDelete.iterator(); iterator.hasNext(); ) {
-                    try {
-                        FileUtils.forceDelete(iterator.next());
-                        iterator.remove();
-                    } catch (IOException e) {
-                    }
+            for (File pendingFile : filesToDelete) {
+                if (tryDelete(pendingFile)) {
+                    filesToDelete.remove(pendingFile);
                 }
             }
         }
 
+        private static boolean tryDelete(File file) {
+            try {
+                FileUtils.forceDelete(file);
+                return true;
+            } catch (FileNotFoundException e) {
+                // already deleted, possibly by a concurrent retry
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
         public InputStream getInputStream() throws IOException {
             if (file == null) {
                 throw new IllegalStateException("storage has been deleted");
             }
 
+            ByteBuffer mapped = getMappingForRead();
+            if (mapped != null) {
+                return new ByteBufferInputStream(mapped);
+            }
             return new BufferedInputStream(Files.newInputStream(file.toPath()));
         }
 
+        /**
+         * Maps the file regardless of the mapped read threshold and keeps the
+         * mapping for later reads.
+         *
+         * @throws IOException if the file is larger than 2 GB
+         */
+        public ByteBuffer getByteBuffer() throws IOException {
+            File mappedFile = file;
+            if (mappedFile == null) {
+                throw new IllegalStateException("storage has been deleted");
+            }
+
+            return getMapping(mappedFile).duplicate();
+        }
+
+        // The shared mapping if reads of this file should go through it, null otherwise
+        private ByteBuffer getMappingForRead() throws IOException {
+            ByteBuffer mapped = mapping;
+            if (mapped != null) {
+                return mapped.duplicate();
+            }
+            File mappedFile = file;
+            if (mappedReadThreshold < 0 || mappedFile == null) {
+                return null;
+            }
+            long size = mappedFile.length();
+            if (size < mappedReadThreshold || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            return getMapping(mappedFile).duplicate();
+        }
+
+        private synchronized ByteBuffer getMapping(File mappedFile) throws IOException {
+            if (mapping == null) {
+                try (FileChannel channel = FileChannel.open(mappedFile.toPath(), StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    if (size > Integer.MAX_VALUE) {
+                        throw new IOException("too large to be mapped: " + mappedFile);
+                    }
+                    mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).asReadOnlyBuffer();
+                }
+            }
+            return mapping;
+        }
+
+        public InputStream getInputStream(long offset, long length) throws IOException {
+            if (file == null) {
+                throw new IllegalStateException("storage has been deleted");
+            }
+            if (offset < 0 || length < 0) {
+                throw new IllegalArgumentException();
+            }
+
+            ByteBuffer mapped = getMappingForRead();
+            if (mapped != null) {
+                int start = (int) Math.min(offset, mapped.limit());
+                mapped.position(start);
+                mapped.limit(start + (int) Math.min(length, mapped.limit() - start));
+                return new ByteBufferInputStream(mapped);
+            }
+            // Positional reads start right at the offset, whatever its distance from the start
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            long size = channel.size();
+            long start = Math.min(offset, size);
+            return new ChannelRangeInputStream(channel, start, start + Math.min(length, size - start), true);
+        }
+
+        public int append(InputStream in) throws IOException {
+            if (file == null) {
+                throw new IllegalStateException("storage has been deleted");
+            }
+
+            mapping = null;
+            try (OutputStream out = Files.newOutputStream(file.toPath(), StandardOpenOption.APPEND)) {
+                return CodecUtil.copy(in, out);
+            }
+        }
+
+        public long transferTo(WritableByteChannel target) throws IOException {
+            if (file == null) {
+                throw new IllegalStateException("storage has been deleted");
+            }
+
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                // The kernel copies the data, using sendfile or splice where the target allows it
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    long transferred = in.transferTo(position, size - position, target);
+                    if (transferred <= 0) {
+                        // A full or non-blocking target, or a file shrunk underneath, would never finish
+                        throw new IOException("transfer stopped after " + position + " of " + size + " bytes");
+                    }
+                    position += transferred;
+                }
+                return position;
+            }
+        }
     }
 }
@@ -4,11 +4,14 @@ import org.apache.james.mime4j.storage.Storage;
 import org.apache.james.mime4j.storage.StorageOutputStream;
 import org.apache.james.mime4j.storage.StorageProvider;
 import org.apache.james.mime4j.util.ByteArrayBuffer;
+import tech.blueglacier.codec.CodecUtil;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * A {@link StorageProvider} that keeps small amounts of data in memory and
@@ -22,11 +25,15 @@ import java.io.SequenceInputStream;
  * StorageProvider provider = new ThresholdStorageProvider(tempStore, 4096);
  * DefaultStorageProvider.setInstance(provider);
  * </pre>
+ * <p>
+ * With a {@link MemoryBudget} shared between providers, data is kept in memory
+ * only as long as the budget allows and goes to the back-end otherwise.
  */
 public class ThresholdStorageProvider extends AbstractStorageProvider {
 
     private final StorageProvider backend;
     private final int thresholdSize;
+    private final MemoryBudget memoryBudget;
 
     /**
      * Creates a new <code>ThresholdStorageProvider</code> for the given
@@ -47,21 +54,44 @@ public class ThresholdStorageProvider extends AbstractStorageProvider {
      *                      the data.
      */
     public ThresholdStorageProvider(StorageProvider backend, int thresholdSize) {
+        this(backend, thresholdSize, null);
+    }
+
+    /**
+     * Creates a new <code>ThresholdStorageProvider</code> whose in-memory data
+     * is also limited by the given budget.
+     *
+     * @param memoryBudget reserved from for every byte kept in memory, released
+     *                     when the storage is deleted; <code>null</code> for no limit.
+     */
+    public ThresholdStorageProvider(StorageProvider backend, int thresholdSize, MemoryBudget memoryBudget) {
         if (backend == null || thresholdSize < 1) {
             throw new IllegalArgumentException();
         }
         this.backend = backend;
         this.thresholdSize = thresholdSize;
+        this.memoryBudget = memoryBudget;
+    }
+
+    // Number of the given bytes which may still be added to a head of the given length
+    private int reserveHead(int headLength, int length) {
+        int n = Math.min(thresholdSize - headLength, length);
+        if (n <= 0 || (memoryBudget != null && !memoryBudget.tryReserve(n))) {
+            return 0;
+        }
+        return n;
     }
 
     public StorageOutputStream createStorageOutputStream() {
         return new ThresholdStorageOutputStream();
     }
 
-    private final class ThresholdStorageOutputStream extends StorageOutputStream {
+    private final class ThresholdStorageOutputStream extends StorageOutputStream implements DiscardableStorageOutputStream {
 
         private final ByteArrayBuffer head;
         private StorageOutputStream tail;
+        // Set once the head's reservation went to a storage or back to the budget
+        private boolean finished;
 
         public ThresholdStorageOutputStream() {
             final int bufferSize = Math.min(thresholdSize, 1024);
@@ -78,9 +108,9 @@ public class ThresholdStorageProvider extends AbstractStorageProvider {
 
         @Override
         protected void write0(byte[] buffer, int offset, int length) throws IOException {
-            int remainingHeadSize = thresholdSize - head.length();
-            if (remainingHeadSize > 0) {
-                int n = Math.min(remainingHeadSize, length);
+            // Once anything went to the tail the head stays as it is, keeping the content in order
+            if (tail == null) {
+                int n = reserveHead(head.length(), length);
                 head.append(buffer, offset, n);
                 offset += n;
                 length -= n;
@@ -95,30 +125,54 @@ public class ThresholdStorageProvider extends AbstractStorageProvider {
 
         @Override
         protected Storage toStorage0() throws IOException {
-            if (tail == null) {
-                return new MemoryStorageProvider.MemoryStorage(head.buffer(), head.length());
+            if (finished) {
+                throw new IllegalStateException("storage output stream has been discarded");
+            }
+            Storage tailStorage = tail == null ? null : tail.toStorage();
+            finished = true;
+            MemoryStorageProvider.MemoryStorage headStorage = new MemoryStorageProvider.MemoryStorage(head.buffer(), head.length());
+            return new ThresholdStorage(headStorage, tailStorage);
+        }
+
+        public void discard() {
+            if (!finished) {
+                finished = true;
+                try {
+                    super.close();
+                } catch (IOException e) {
+                    // closing the head only marks the stream closed
+                }
+                if (memoryBudget != null) {
+                    memoryBudget.release(head.length());
+                }
+                head.clear();
+                DiscardableStorageOutputStream.discardQuietly(tail);
             }
-            return new ThresholdStorage(head.buffer(), head.length(), tail.toStorage());
         }
     }
 
-    private static final class ThresholdStorage implements Storage {
+    private final class ThresholdStorage implements AppendableStorage, TransferableStorage, RangedStorage {
 
-        private byte[] head;
-        private final int headLen;
+        private MemoryStorageProvider.MemoryStorage head;
         private Storage tail;
 
-        public ThresholdStorage(byte[] head, int headLen, Storage tail) {
+        public ThresholdStorage(MemoryStorageProvider.MemoryStorage head, Storage tail) {
             this.head = head;
-            this.headLen = headLen;
             this.tail = tail;
         }
 
-        public void delete() {
+        // Synchronized so that concurrent deletes return the head's reservation only once
+        public synchronized void delete() {
             if (head != null) {
+                if (memoryBudget != null) {
+                    memoryBudget.release(head.length());
+                }
+                head.delete();
                 head = null;
-                tail.delete();
-                tail = null;
+                if (tail != null) {
+                    tail.delete();
+                    tail = null;
+                }
             }
         }
 
@@ -127,9 +181,105 @@ public class ThresholdStorageProvider extends AbstractStorageProvider {
                 throw new IllegalStateException("storage has been deleted");
             }
 
-            InputStream headStream = new ByteArrayInputStream(head, 0, headLen);
+            InputStream headStream = head.getInputStream();
+            if (tail == null) {
+                return headStream;
+            }
             InputStream tailStream = tail.getInputStream();
             return new SequenceInputStream(headStream, tailStream);
         }
+
+        public InputStream getInputStream(long offset, long length) throws IOException {
+            if (head == null) {
+                throw new IllegalStateException("storage has been deleted");
+            }
+            if (offset < 0 || length < 0) {
+                throw new IllegalArgumentException();
+            }
+
+            int headLength = head.length();
+            if (tail == null || (offset < headLength && length <= headLength - offset)) {
+                return head.getInputStream(offset, length);
+            }
+            if (offset >= headLength) {
+                return getTailInputStream(offset - headLength, length);
+            }
+            // The range starts in the head and continues into the tail
+            long headPart = headLength - offset;
+            return new SequenceInputStream(head.getInputStream(offset, headPart), getTailInputStream(0, length - headPart));
+        }
+
+        private InputStream getTailInputStream(long offset, long length) throws IOException {
+            if (tail instanceof RangedStorage) {
+                return ((RangedStorage) tail).getInputStream(offset, length);
+            }
+            return CodecUtil.range(tail.getInputStream(), offset, length);
+        }
+
+        public int append(InputStream in) throws IOException {
+            if (head == null) {
+                throw new IllegalStateException("storage has been deleted");
+            }
+
+            int totalBytesAppended = 0;
+            if (tail == null) {
+                final byte[] buffer = new byte[1024];
+                int inputLength;
+                while (-1 != (inputLength = in.read(buffer))) {
+                    int n = reserveHead(head.length(), inputLength);
+                    head.append(buffer, 0, n);
+                    totalBytesAppended += n;
+                    if (n < inputLength) {
+                        // Threshold or budget exceeded, the rest of the data spills over to the back-end
+                        InputStream remainder = new SequenceInputStream(
+                                new ByteArrayInputStream(buffer, n, inputLength - n), in);
+                        return totalBytesAppended + appendToTail(remainder);
+                    }
+                }
+                return totalBytesAppended;
+            }
+            return appendToTail(in);
+        }
+
+        public long transferTo(WritableByteChannel target) throws IOException {
+            if (head == null) {
+                throw new IllegalStateException("storage has been deleted");
+            }
+
+            long totalBytesWritten = head.transferTo(target);
+            if (tail instanceof TransferableStorage) {
+                totalBytesWritten += ((TransferableStorage) tail).transferTo(target);
+            } else if (tail != null) {
+                try (InputStream tailStream = tail.getInputStream()) {
+                    totalBytesWritten += CodecUtil.copy(tailStream, Channels.newOutputStream(target));
+                }
+            }
+            return totalBytesWritten;
+        }
+
+        private int appendToTail(InputStream in) throws IOException {
+            if (tail instanceof AppendableStorage) {
+                return ((AppendableStorage) tail).append(in);
+            }
+            StorageOutputStream out = backend.createStorageOutputStream();
+            int totalBytesAppended;
+            Storage previousTail = tail;
+            try {
+                if (tail != null) {
+                    try (InputStream tailStream = tail.getInputStream()) {
+                        CodecUtil.copy(tailStream, out);
+                    }
+                }
+                totalBytesAppended = CodecUtil.copy(in, out);
+                tail = out.toStorage();
+            } catch (IOException | RuntimeException e) {
+                DiscardableStorageOutputStream.discardQuietly(out);
+                throw e;
+            }
+            if (previousTail != null) {
+                previousTail.delete();
+            }
+            return totalBytesAppended;
+        }
     }
 }
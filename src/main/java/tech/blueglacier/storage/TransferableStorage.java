@@ -0,0 +1,37 @@
+package tech.blueglacier.storage;
+
+import org.apache.james.mime4j.storage.Storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link Storage} able to hand its content to a channel directly, without
+ * copying it through a stream and a heap buffer first.
+ */
+public interface TransferableStorage extends Storage {
+
+    /**
+     * Writes the whole content to the given channel, which is left open.
+     *
+     * @return number of bytes written.
+     * @throws IOException if an I/O error occurs.
+     */
+    long transferTo(WritableByteChannel target) throws IOException;
+
+    /**
+     * Saves the content to a new file.
+     *
+     * @param target path of the file to create, which must not exist yet.
+     * @throws java.nio.file.FileAlreadyExistsException if the target exists.
+     * @throws IOException if an I/O error occurs.
+     */
+    default void saveTo(Path target) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            transferTo(out);
+        }
+    }
+}
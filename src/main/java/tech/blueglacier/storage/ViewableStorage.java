@@ -0,0 +1,19 @@
+package tech.blueglacier.storage;
+
+import org.apache.james.mime4j.storage.Storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Storage} whose content can be viewed as a buffer without being
+ * copied, such as an in-memory array or a memory mapped file.
+ */
+public interface ViewableStorage extends Storage {
+
+    /**
+     * @return a read-only buffer holding the whole content between position 0 and its limit.
+     * @throws IOException if an I/O error occurs.
+     */
+    ByteBuffer getByteBuffer() throws IOException;
+}
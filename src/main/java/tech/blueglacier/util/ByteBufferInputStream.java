@@ -0,0 +1,79 @@
+package tech.blueglacier.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining bytes of a buffer with bulk copies. The stream works on
+ * a duplicate, so the position of the given buffer is never changed.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+	private final ByteBuffer buffer;
+	private final int start;
+	private int mark;
+
+	/**
+	 * @param buffer not null
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		if (buffer == null) {
+			throw new IllegalArgumentException();
+		}
+		this.buffer = buffer.duplicate();
+		this.start = this.buffer.position();
+		this.mark = this.start;
+	}
+
+	/**
+	 * @return offset of the next byte to read, relative to the position of the given buffer
+	 */
+	public int getPosition() {
+		return buffer.position() - start;
+	}
+
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		int count = Math.min(len, buffer.remaining());
+		buffer.get(b, off, count);
+		return count;
+	}
+
+	@Override
+	public long skip(long n) {
+		int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + count);
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public void mark(int readlimit) {
+		mark = buffer.position();
+	}
+
+	@Override
+	public void reset() {
+		buffer.position(mark);
+	}
+}
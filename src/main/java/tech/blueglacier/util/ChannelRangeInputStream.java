@@ -0,0 +1,110 @@
+package tech.blueglacier.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a byte range of a file channel using positional reads only, so any
+ * number of these streams can read the same channel concurrently. Unless
+ * asked to, closing the stream leaves the channel open.
+ */
+public class ChannelRangeInputStream extends InputStream {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final FileChannel channel;
+	private final long end;
+	private final ByteBuffer buffer;
+	private final boolean closeChannel;
+	private long position;
+
+	/**
+	 * @param channel not null
+	 * @param start   offset of the first byte to read
+	 * @param end     offset after the last byte to read
+	 */
+	public ChannelRangeInputStream(FileChannel channel, long start, long end) {
+		this(channel, start, end, false);
+	}
+
+	/**
+	 * @param closeChannel whether closing the stream also closes the channel
+	 */
+	public ChannelRangeInputStream(FileChannel channel, long start, long end, boolean closeChannel) {
+		if (channel == null || start < 0 || end < start) {
+			throw new IllegalArgumentException();
+		}
+		this.channel = channel;
+		this.position = start;
+		this.end = end;
+		this.closeChannel = closeChannel;
+		this.buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(1, end - start)));
+		this.buffer.flip();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return buffer.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public long skip(long n) {
+		if (n <= 0) {
+			return 0;
+		}
+		long buffered = Math.min(n, buffer.remaining());
+		buffer.position(buffer.position() + (int) buffered);
+		long skipped = Math.min(n - buffered, end - position);
+		position += skipped;
+		return buffered + skipped;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, buffer.remaining() + end - position);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closeChannel) {
+			channel.close();
+		}
+	}
+
+	private boolean fill() throws IOException {
+		if (buffer.hasRemaining()) {
+			return true;
+		}
+		if (position >= end) {
+			return false;
+		}
+		buffer.clear();
+		buffer.limit((int) Math.min(buffer.capacity(), end - position));
+		int read = channel.read(buffer, position);
+		buffer.flip();
+		if (read <= 0) {
+			// the file is shorter than the range
+			return false;
+		}
+		position += read;
+		return true;
+	}
+}
@@ -9,7 +9,6 @@ import org.apache.james.mime4j.message.MaximalBodyDescriptor;
 import org.apache.james.mime4j.stream.BodyDescriptor;
 
 import java.util.Map;
-import java.util.Properties;
 
 public class Common {
 	
@@ -71,10 +70,19 @@ public class Common {
 		return attachmentName;		
 	}
 
+	/**
+	 * @return size of the part as declared by its headers, content length first
+	 * and the disposition size parameter second, -1 if neither is present
+	 */
+	public static long getDeclaredSize(BodyDescriptor bd) {
+		long declaredSize = bd.getContentLength();
+		if (declaredSize < 0 && bd instanceof MaximalBodyDescriptor) {
+			declaredSize = ((MaximalBodyDescriptor) bd).getContentDispositionSize();
+		}
+		return declaredSize;
+	}
+
 	public static String getFallbackCharset(String charSet){
-		Properties charSetMap;		
-		charSetMap = AppConfig.getInstance().getCharSetMap();		
-		charSet = charSetMap.getProperty(charSet.toLowerCase(), charSet);
-		return charSet;
+		return AppConfig.getInstance().getFallbackCharset(charSet);
 }
 }
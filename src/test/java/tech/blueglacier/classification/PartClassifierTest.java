@@ -0,0 +1,47 @@
+package tech.blueglacier.classification;
+
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.message.DefaultBodyDescriptorBuilder;
+import org.apache.james.mime4j.stream.BodyDescriptor;
+import org.apache.james.mime4j.stream.BodyDescriptorBuilder;
+import org.apache.james.mime4j.stream.RawField;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+public class PartClassifierTest {
+
+	private BodyDescriptor getBodyDescriptor(String contentType, String contentDisposition) throws MimeException {
+		BodyDescriptorBuilder bodyDescriptorBuilder = new DefaultBodyDescriptorBuilder();
+		bodyDescriptorBuilder.addField(new RawField("Content-Type", contentType));
+		if (contentDisposition != null) {
+			bodyDescriptorBuilder.addField(new RawField("Content-Disposition", contentDisposition));
+		}
+		return bodyDescriptorBuilder.build();
+	}
+
+	@Test
+	public void classifyBodies() throws MimeException {
+		Assert.assertEquals(PartClassifier.DEFAULT.classify(getBodyDescriptor("text/plain; charset=UTF-8", null)).getRole(), PartRole.PLAIN_TEXT_BODY);
+		Assert.assertEquals(PartClassifier.DEFAULT.classify(getBodyDescriptor("text/html", null)).getRole(), PartRole.HTML_BODY);
+		Assert.assertEquals(PartClassifier.DEFAULT.classify(getBodyDescriptor("text/calendar", null)).getRole(), PartRole.CALENDAR_BODY);
+	}
+
+	@Test
+	public void classifyAttachments() throws MimeException {
+		PartClassification classification = PartClassifier.DEFAULT.classify(getBodyDescriptor("text/plain", "attachment; filename=\"=?UTF-8?B?w6Rww6Q=?=.txt\""));
+		Assert.assertEquals(classification.getRole(), PartRole.ATTACHMENT);
+		Assert.assertEquals(classification.getAttachmentName(), "\u00e4p\u00e4.txt");
+		Assert.assertEquals(PartClassifier.DEFAULT.classify(getBodyDescriptor("application/octet-stream", null)).getRole(), PartRole.UNIDENTIFIED);
+	}
+
+	@Test
+	public void customRulesTakePrecedence() throws MimeException {
+		List<PartClassificationRule> rules = PartClassifier.getDefaultRules();
+		rules.add(0, new NamelessMimeTypeRule("text/plain", PartRole.ATTACHMENT));
+		PartClassifier partClassifier = new PartClassifier(rules);
+		Assert.assertEquals(partClassifier.classify(getBodyDescriptor("text/plain", null)).getRole(), PartRole.ATTACHMENT);
+		Assert.assertEquals(partClassifier.classify(getBodyDescriptor("text/html", null)).getRole(), PartRole.HTML_BODY);
+	}
+}
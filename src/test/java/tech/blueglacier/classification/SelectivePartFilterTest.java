@@ -0,0 +1,44 @@
+package tech.blueglacier.classification;
+
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.message.DefaultBodyDescriptorBuilder;
+import org.apache.james.mime4j.stream.BodyDescriptor;
+import org.apache.james.mime4j.stream.BodyDescriptorBuilder;
+import org.apache.james.mime4j.stream.RawField;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SelectivePartFilterTest {
+
+	private BodyDescriptor getBodyDescriptor(String contentType, String contentDisposition) throws MimeException {
+		BodyDescriptorBuilder bodyDescriptorBuilder = new DefaultBodyDescriptorBuilder();
+		bodyDescriptorBuilder.addField(new RawField("Content-Type", contentType));
+		if (contentDisposition != null) {
+			bodyDescriptorBuilder.addField(new RawField("Content-Disposition", contentDisposition));
+		}
+		return bodyDescriptorBuilder.build();
+	}
+
+	private boolean accept(PartFilter filter, String contentType, String contentDisposition, int position) throws MimeException {
+		BodyDescriptor bd = getBodyDescriptor(contentType, contentDisposition);
+		return filter.accept(bd, PartClassifier.DEFAULT.classify(bd), position);
+	}
+
+	@Test
+	public void acceptByMimeTypeOrExtension() throws MimeException {
+		PartFilter filter = SelectivePartFilter.custom().addMimeType("text/*").addFileExtension("pdf").build();
+		Assert.assertTrue(accept(filter, "text/html", null, 0));
+		Assert.assertTrue(accept(filter, "application/octet-stream", "attachment; filename=\"Report.PDF\"", 1));
+		Assert.assertFalse(accept(filter, "video/mp4", "attachment; filename=\"clip.mp4\"", 2));
+		Assert.assertFalse(accept(filter, "application/zip", "attachment; filename=\"pdf\"", 3));
+	}
+
+	@Test
+	public void rejectByDeclaredSizeAndPosition() throws MimeException {
+		PartFilter filter = SelectivePartFilter.custom().setMaxDeclaredSize(1000).setMaxPosition(2).build();
+		Assert.assertTrue(accept(filter, "image/png", "attachment; filename=\"a.png\"; size=1000", 0));
+		Assert.assertFalse(accept(filter, "image/png", "attachment; filename=\"a.png\"; size=1001", 0));
+		Assert.assertTrue(accept(filter, "image/png", "attachment; filename=\"a.png\"", 1));
+		Assert.assertFalse(accept(filter, "text/plain", null, 2));
+	}
+}
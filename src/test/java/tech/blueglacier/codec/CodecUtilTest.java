@@ -1,10 +1,12 @@
 package tech.blueglacier.codec;
 
+import org.apache.commons.codec.binary.Base64;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.io.*;
 import java.net.URL;
+import java.util.Random;
 
 public class CodecUtilTest {
 
@@ -17,6 +19,18 @@ public class CodecUtilTest {
 		whenInputStreamIs("gmailMessage.eml").andOutputStreamIs("CopiedgmailMessage.eml").assertTotalBytesTransfferedAre(1204);
 	}
 
+	@Test
+	public void testBase64EncodingMatchesSinglePassEncoding() throws IOException {
+		for (int length : new int[]{0, 1, 2, 3, 3071, 3072, 3073, 10000}) {
+			byte[] content = new byte[length];
+			new Random(length).nextBytes(content);
+			StringWriter out = new StringWriter();
+			long encodedBytes = CodecUtil.copyBase64Encoded(new ByteArrayInputStream(content), out);
+			Assert.assertEquals(encodedBytes, length);
+			Assert.assertEquals(out.toString(), Base64.encodeBase64String(content));
+		}
+	}
+
 	private void assertTotalBytesTransfferedAre(int expectedTotalBytesTransffered) throws IOException {
 		Assert.assertEquals(CodecUtil.copy(in, out), expectedTotalBytesTransffered);		
 	}
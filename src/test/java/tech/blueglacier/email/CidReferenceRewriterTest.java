@@ -0,0 +1,63 @@
+package tech.blueglacier.email;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import tech.blueglacier.storage.MemoryStorageProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CidReferenceRewriterTest {
+
+	private final Attachment first = new PlainTextEmailBody(null, new ByteArrayInputStream(new byte[0]),
+			new MemoryStorageProvider());
+	private final Attachment second = new PlainTextEmailBody(null, new ByteArrayInputStream(new byte[0]),
+			new MemoryStorageProvider());
+
+	private CidReferenceRewriter getRewriter() {
+		Map<String, Attachment> attachmentsByContentId = new HashMap<>();
+		attachmentsByContentId.put("image001.jpg@01CC", first);
+		attachmentsByContentId.put("image001.jpg@01CC4BB5", second);
+		return new CidReferenceRewriter(attachmentsByContentId) {
+			@Override
+			protected boolean writeReplacement(Attachment attachment, String contentId, Writer out) throws IOException {
+				out.write(attachment == first ? "[first]" : "[second]");
+				return true;
+			}
+		};
+	}
+
+	private String rewrite(CidReferenceRewriter rewriter, String html) throws IOException {
+		StringWriter out = new StringWriter();
+		rewriter.rewrite(new StringReader(html), out);
+		return out.toString();
+	}
+
+	@Test
+	public void replacesKnownReferences() throws IOException {
+		CidReferenceRewriter rewriter = getRewriter();
+		String rewritten = rewrite(rewriter, "<img src=\"cid:image001.jpg@01CC\"><img src=\"cid:image001.jpg@01CC4BB5\">");
+		Assert.assertEquals(rewritten, "<img src=\"[first]\"><img src=\"[second]\">");
+		Assert.assertEquals(rewriter.getReplacedAttachments().size(), 2);
+	}
+
+	@Test
+	public void keepsUnknownReferences() throws IOException {
+		CidReferenceRewriter rewriter = getRewriter();
+		String html = "ccid:cid cid:image002.jpg <img src=\"cid:image001.jpg@01\"> ci";
+		Assert.assertEquals(rewrite(rewriter, html), html);
+		Assert.assertTrue(rewriter.getReplacedAttachments().isEmpty());
+	}
+
+	@Test
+	public void prefersLongestContentId() throws IOException {
+		CidReferenceRewriter rewriter = getRewriter();
+		Assert.assertEquals(rewrite(rewriter, "cid:image001.jpg@01CC4BB5.A6 ccid:image001.jpg@01CC4B"),
+				"[second].A6 c[first]4B");
+	}
+}
@@ -4,6 +4,8 @@ import tech.blueglacier.parser.CustomContentHandler;
 import org.apache.james.mime4j.MimeException;
 import org.apache.james.mime4j.codec.DecodeMonitor;
 import org.apache.james.mime4j.dom.Header;
+import org.apache.james.mime4j.dom.address.AddressList;
+import org.apache.james.mime4j.dom.address.Mailbox;
 import org.apache.james.mime4j.message.DefaultBodyDescriptorBuilder;
 import org.apache.james.mime4j.parser.ContentHandler;
 import org.apache.james.mime4j.parser.MimeStreamParser;
@@ -81,6 +83,22 @@ public class EmailVerificationTest {
         Assert.assertEquals(email.getCCEmailHeaderValue(), "\"Sharma, Ram\" <ram.sharma.6453@aol.com>, Ram Sharma <ram.sharma.6453.ait@gmail.com>");
     }
 
+    @Test
+    public void assertDecodedHeaderValues() throws MimeException, IOException {
+        Email email = getParsedSimpleMail();
+        AddressList cc = email.getCcAddresses();
+        Assert.assertEquals(cc.size(), 2);
+        Assert.assertEquals(((Mailbox) cc.get(0)).getName(), "Sharma, Ram");
+        Assert.assertEquals(((Mailbox) cc.get(1)).getAddress(), "ram.sharma.6453.ait@gmail.com");
+        Assert.assertEquals(email.getToAddresses().flatten().get(0).getAddress(), "ram.sharma.6453@gmail.com");
+        Assert.assertEquals(email.getFromMailboxes().get(0).getName(), "Ram Sharma");
+        Assert.assertEquals(email.getBccAddresses().size(), 1);
+        Assert.assertEquals(email.getMessageId(), "<CAJnCofR3PRPv833SwiACft3jhyC-FKO6yJ0DQJ51THZo7=4-GA@mail.gmail.com>");
+        Assert.assertEquals(email.getSentDate().getTime(), 1312356840000L);
+        // Repeated calls return the cached values
+        Assert.assertSame(email.getCcAddresses(), cc);
+    }
+
     @Test
     public void assertFromEmailHeader() throws MimeException, IOException {
         Email email = getParsedSimpleMail();
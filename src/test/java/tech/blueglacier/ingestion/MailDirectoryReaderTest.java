@@ -0,0 +1,142 @@
+package tech.blueglacier.ingestion;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import tech.blueglacier.configuration.ParseProfile;
+import tech.blueglacier.email.Email;
+import tech.blueglacier.manager.EmailBatchCallback;
+import tech.blueglacier.manager.EmailBatchParser;
+import tech.blueglacier.storage.FixedStorageStrategy;
+import tech.blueglacier.storage.MemoryStorageProvider;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+public class MailDirectoryReaderTest {
+
+	private static final ParseProfile PROFILE = ParseProfile.custom()
+			.setMaxLineLen(-1)
+			.setMaxHeaderLen(-1)
+			.setStorageStrategy(new FixedStorageStrategy(new MemoryStorageProvider()))
+			.build();
+
+	private Path root;
+	private long messageBytes;
+
+	@BeforeClass
+	public void createTree() throws IOException, URISyntaxException {
+		root = Files.createTempDirectory("test");
+		Path maildir = root.resolve("Maildir");
+		Path subFolder = maildir.resolve(".Sent");
+		for (Path folder : new Path[]{maildir, subFolder}) {
+			Files.createDirectories(folder.resolve("cur"));
+			Files.createDirectories(folder.resolve("new"));
+			Files.createDirectories(folder.resolve("tmp"));
+		}
+		copyMessage("gmailMessage.eml", maildir.resolve("cur/1.host:2,S"));
+		copyMessage("simpleEmailForSubjectVerification.eml", maildir.resolve("new/2.host"));
+		copyMessage("gmailMessage.eml", subFolder.resolve("cur/3.host:2,S"));
+		copyMessage("emailWithAttachedEmails.eml", root.resolve("archive/2019/attached.eml"));
+		copyMessage("simpleEmailForSubjectVerification.eml", root.resolve("archive/SUBJECT.EML"));
+		try (Stream<Path> files = Files.walk(root)) {
+			messageBytes = files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+		}
+		// Neither deliveries in progress nor other files are messages
+		copyMessage("gmailMessage.eml", maildir.resolve("tmp/4.host"));
+		copyMessage("gmailMessage.eml", root.resolve("archive/notes.txt"));
+		copyMessage("gmailMessage.eml", maildir.resolve("dovecot.index"));
+	}
+
+	@AfterClass
+	public void deleteTree() throws IOException {
+		FileUtils.deleteDirectory(root.toFile());
+	}
+
+	private void copyMessage(String messageFileName, Path target) throws IOException, URISyntaxException {
+		Files.createDirectories(target.getParent());
+		Files.copy(Paths.get(this.getClass().getClassLoader().getResource(messageFileName).toURI()), target);
+	}
+
+	@Test
+	public void parseMaildirsAndEmlFiles() {
+		Map<String, String> subjects = new ConcurrentHashMap<>();
+		Map<Path, Exception> failed = new ConcurrentHashMap<>();
+		MailDirectoryReader reader = new MailDirectoryReader(root, 2);
+		IngestionStats stats;
+		try (EmailBatchParser batchParser = new EmailBatchParser(PROFILE, 2)) {
+			stats = reader.parseAll(batchParser, new EmailBatchCallback<Path>() {
+				public void parsed(Path path, Email email) {
+					subjects.put(root.relativize(path).toString().replace('\\', '/'), email.getEmailSubject());
+				}
+
+				public void failed(Path path, Exception e) {
+					failed.put(path, e);
+				}
+			});
+		}
+		Assert.assertTrue(failed.isEmpty(), failed.toString());
+		Assert.assertEquals(subjects.size(), 5, subjects.toString());
+		Assert.assertEquals(subjects.get("Maildir/cur/1.host:2,S"), "Test email");
+		Assert.assertEquals(subjects.get("Maildir/new/2.host"), "Test email for header");
+		Assert.assertEquals(subjects.get("Maildir/.Sent/cur/3.host:2,S"), "Test email");
+		Assert.assertEquals(subjects.get("archive/2019/attached.eml"), "Test email for attached email");
+		Assert.assertEquals(subjects.get("archive/SUBJECT.EML"), "Test email for header");
+
+		Assert.assertSame(reader.getStats(), stats);
+		Assert.assertEquals(stats.getMessagesFound(), 5);
+		Assert.assertEquals(stats.getMessagesParsed(), 5);
+		Assert.assertEquals(stats.getMessagesFailed(), 0);
+		Assert.assertEquals(stats.getDirectoriesFailed(), 0);
+		Assert.assertEquals(stats.getBytesRead(), messageBytes);
+	}
+
+	@Test
+	public void singleWalkerBlockedOnFullBatchParser() {
+		Map<Path, Exception> failed = new ConcurrentHashMap<>();
+		IngestionStats stats;
+		try (EmailBatchParser batchParser = new EmailBatchParser(PROFILE, 1, 1)) {
+			stats = new MailDirectoryReader(root, 1).parseAll(batchParser, new EmailBatchCallback<Path>() {
+				public void parsed(Path path, Email email) {
+				}
+
+				public void failed(Path path, Exception e) {
+					failed.put(path, e);
+				}
+			});
+		}
+		Assert.assertTrue(failed.isEmpty(), failed.toString());
+		Assert.assertEquals(stats.getMessagesFound(), 5);
+		Assert.assertEquals(stats.getMessagesParsed(), 5);
+	}
+
+	@Test
+	public void unlistableDirectoryIsNotCountedAsMessage() {
+		Path notADirectory = root.resolve("archive/notes.txt");
+		Map<Path, Exception> failed = new ConcurrentHashMap<>();
+		IngestionStats stats;
+		try (EmailBatchParser batchParser = new EmailBatchParser(PROFILE, 1)) {
+			stats = new MailDirectoryReader(notADirectory, 1).parseAll(batchParser, new EmailBatchCallback<Path>() {
+				public void parsed(Path path, Email email) {
+				}
+
+				public void failed(Path path, Exception e) {
+					failed.put(path, e);
+				}
+			});
+		}
+		Assert.assertEquals(failed.keySet(), Collections.singleton(notADirectory));
+		Assert.assertEquals(stats.getDirectoriesFailed(), 1);
+		Assert.assertEquals(stats.getMessagesFound(), 0);
+		Assert.assertEquals(stats.getMessagesFailed(), 0);
+	}
+}
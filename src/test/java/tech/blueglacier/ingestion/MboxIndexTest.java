@@ -0,0 +1,197 @@
+package tech.blueglacier.ingestion;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import tech.blueglacier.configuration.ParseProfile;
+import tech.blueglacier.email.Email;
+import tech.blueglacier.manager.EmailBatchCallback;
+import tech.blueglacier.manager.EmailBatchParser;
+import tech.blueglacier.storage.FixedStorageStrategy;
+import tech.blueglacier.storage.MemoryStorageProvider;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class MboxIndexTest {
+
+	private static final ParseProfile PROFILE = ParseProfile.custom()
+			.setMaxLineLen(-1)
+			.setMaxHeaderLen(-1)
+			.setStorageStrategy(new FixedStorageStrategy(new MemoryStorageProvider()))
+			.build();
+
+	private Path mbox;
+	private MboxIndex index;
+
+	@BeforeClass
+	public void createMbox() throws IOException, URISyntaxException {
+		mbox = MboxReaderTest.createMbox(this.getClass(), 10);
+		index = MboxIndex.build(mbox);
+	}
+
+	@AfterClass
+	public void deleteMbox() throws IOException {
+		Files.deleteIfExists(mbox);
+	}
+
+	@Test
+	public void indexFindsAllMessages() {
+		Assert.assertEquals(index.size(), 10);
+		Assert.assertEquals(index.getStart(0), "From MAILER-DAEMON Thu Sep  1 12:53:24 2011\n".length());
+		Assert.assertEquals(index.getEnd(9), index.getMboxSize());
+		for (int i = 1; i < index.size(); i++) {
+			Assert.assertTrue(index.getEnd(i - 1) < index.getStart(i));
+		}
+		Assert.assertEquals(index.getMessageId(0), "<CAJnCofTi_uhkh9DVUKOx11Xab5mWmKYy+0W99b=tur8mx8LrOQ@mail.gmail.com>");
+	}
+
+	@Test
+	public void savedIndexIsReloaded() throws IOException {
+		Path indexFile = Files.createTempFile("test", ".idx");
+		try {
+			index.save(indexFile);
+			MboxIndex loaded = MboxIndex.load(indexFile, mbox);
+			Assert.assertEquals(loaded.size(), index.size());
+			for (int i = 0; i < index.size(); i++) {
+				Assert.assertEquals(loaded.getStart(i), index.getStart(i));
+				Assert.assertEquals(loaded.getEnd(i), index.getEnd(i));
+				Assert.assertEquals(loaded.getMessageId(i), index.getMessageId(i));
+			}
+		} finally {
+			Files.deleteIfExists(indexFile);
+		}
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void staleIndexIsRejected() throws IOException, URISyntaxException {
+		Path indexFile = Files.createTempFile("test", ".idx");
+		Path grownMbox = MboxReaderTest.createMbox(this.getClass(), 3);
+		try {
+			MboxIndex.build(grownMbox).save(indexFile);
+			Files.write(grownMbox, "\n".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+			MboxIndex.load(indexFile, grownMbox);
+		} finally {
+			Files.deleteIfExists(indexFile);
+			Files.deleteIfExists(grownMbox);
+		}
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void touchedIndexIsRejected() throws IOException, URISyntaxException {
+		Path indexFile = Files.createTempFile("test", ".idx");
+		Path touchedMbox = MboxReaderTest.createMbox(this.getClass(), 3);
+		try {
+			MboxIndex.build(touchedMbox).save(indexFile);
+			Files.setLastModifiedTime(touchedMbox, FileTime.fromMillis(Files.getLastModifiedTime(touchedMbox).toMillis() - 60000));
+			MboxIndex.load(indexFile, touchedMbox);
+		} finally {
+			Files.deleteIfExists(indexFile);
+			Files.deleteIfExists(touchedMbox);
+		}
+	}
+
+	@Test
+	public void longMessageIdsAreSavedWholeOrNotAtAll() throws IOException {
+		StringBuilder folded = new StringBuilder("<");
+		for (int i = 0; i < 80; i++) {
+			folded.append(i == 0 ? "" : "\n ").append(String.join("", Collections.nCopies(1000, "a")));
+		}
+		folded.append("@example.com>");
+		String cut = "<" + String.join("", Collections.nCopies(2000, "b")) + "@example.com>";
+		Path longIdMbox = Files.createTempFile("test", ".mbox");
+		Path indexFile = Files.createTempFile("test", ".idx");
+		try {
+			Files.write(longIdMbox, ("From MAILER-DAEMON Thu Sep  1 12:53:24 2011\nMessage-ID: " + folded + "\n\nbody\n"
+					+ "From MAILER-DAEMON Thu Sep  1 12:53:24 2011\nMessage-ID: " + cut + "\n\nbody\n").getBytes(StandardCharsets.US_ASCII));
+			MboxIndex longIdIndex = MboxIndex.build(longIdMbox);
+			Assert.assertEquals(longIdIndex.size(), 2);
+			Assert.assertEquals(longIdIndex.getMessageId(0), folded.toString().replace("\n", ""));
+			Assert.assertNull(longIdIndex.getMessageId(1));
+
+			longIdIndex.save(indexFile);
+			MboxIndex loaded = MboxIndex.load(indexFile, longIdMbox);
+			Assert.assertEquals(loaded.getMessageId(0), longIdIndex.getMessageId(0));
+			Assert.assertNull(loaded.getMessageId(1));
+		} finally {
+			Files.deleteIfExists(indexFile);
+			Files.deleteIfExists(longIdMbox);
+		}
+	}
+
+	@Test
+	public void singleMessageIsParsedDirectly() throws Exception {
+		try (IndexedMboxReader mboxReader = new IndexedMboxReader(mbox, index, PROFILE)) {
+			Email email = mboxReader.parse(4);
+			Assert.assertEquals(email.getEmailSubject(), MboxReaderTest.getExpectedSubject(4));
+		}
+	}
+
+	@Test
+	public void messagesCanReferToTheMbox() throws Exception {
+		ParseProfile parseProfile = ParseProfile.copy(PROFILE).setSourceReferences(true).build();
+		try (IndexedMboxReader mboxReader = new IndexedMboxReader(mbox, index, parseProfile)) {
+			Email email = mboxReader.parse(3);
+			Assert.assertEquals(email.getEmailSubject(), MboxReaderTest.getExpectedSubject(3));
+			Assert.assertEquals(email.getAttachments().get(0).getAttachmentName(), "JMXParameters.txt");
+			Assert.assertTrue(email.getAttachments().get(0).getAttachmentSize() > 0);
+		}
+	}
+
+	@Test
+	public void parsingResumesFromAnyMessage() throws IOException {
+		Map<Integer, String> subjects = new ConcurrentHashMap<>();
+		try (IndexedMboxReader mboxReader = new IndexedMboxReader(mbox, index, PROFILE)) {
+			mboxReader.parseRange(7, index.size(), new SubjectCollector(subjects));
+		}
+		Assert.assertEquals(subjects.size(), 3);
+		for (int i = 7; i < 10; i++) {
+			Assert.assertEquals(subjects.get(i), MboxReaderTest.getExpectedSubject(i));
+		}
+	}
+
+	@Test
+	public void shardsCoverAllMessages() throws IOException {
+		int[] boundaries = index.getShardBoundaries(4);
+		Assert.assertEquals(boundaries[0], 0);
+		Assert.assertEquals(boundaries[4], index.size());
+		Map<Integer, String> subjects = new ConcurrentHashMap<>();
+		try (IndexedMboxReader mboxReader = new IndexedMboxReader(mbox, index);
+			 EmailBatchParser batchParser = new EmailBatchParser(PROFILE, 3)) {
+			for (int shard = 0; shard < 4; shard++) {
+				Assert.assertTrue(boundaries[shard] <= boundaries[shard + 1]);
+				mboxReader.parseRange(boundaries[shard], boundaries[shard + 1], batchParser, new SubjectCollector(subjects));
+			}
+		}
+		Assert.assertEquals(subjects.size(), 10);
+		for (int i = 0; i < 10; i++) {
+			Assert.assertEquals(subjects.get(i), MboxReaderTest.getExpectedSubject(i));
+		}
+	}
+
+	private static final class SubjectCollector implements EmailBatchCallback<Integer> {
+
+		private final Map<Integer, String> subjects;
+
+		private SubjectCollector(Map<Integer, String> subjects) {
+			this.subjects = subjects;
+		}
+
+		public void parsed(Integer messageIndex, Email email) {
+			subjects.put(messageIndex, email.getEmailSubject());
+		}
+
+		public void failed(Integer messageIndex, Exception e) {
+			throw new AssertionError("message " + messageIndex + " failed", e);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package tech.blueglacier.ingestion;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import tech.blueglacier.configuration.ParseProfile;
+import tech.blueglacier.email.Email;
+import tech.blueglacier.manager.EmailBatchCallback;
+import tech.blueglacier.manager.EmailBatchParser;
+import tech.blueglacier.storage.FixedStorageStrategy;
+import tech.blueglacier.storage.MemoryStorageProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class MboxReaderTest {
+
+	static final String[] MESSAGES = {"gmailMessage.eml", "simpleEmailForSubjectVerification.eml", "emailWithAttachedEmails.eml"};
+
+	private static final ParseProfile PROFILE = ParseProfile.custom()
+			.setMaxLineLen(-1)
+			.setMaxHeaderLen(-1)
+			.setStorageStrategy(new FixedStorageStrategy(new MemoryStorageProvider()))
+			.build();
+
+	private Path mbox;
+
+	@BeforeClass
+	public void createMbox() throws IOException, URISyntaxException {
+		mbox = createMbox(this.getClass(), 10);
+	}
+
+	@AfterClass
+	public void deleteMbox() throws IOException {
+		Files.deleteIfExists(mbox);
+	}
+
+	/**
+	 * Writes the test messages round robin into a new mbox file.
+	 */
+	static Path createMbox(Class<?> testClass, int messageCount) throws IOException, URISyntaxException {
+		Path mbox = Files.createTempFile("test", ".mbox");
+		try (OutputStream out = Files.newOutputStream(mbox)) {
+			for (int i = 0; i < messageCount; i++) {
+				Path message = Paths.get(testClass.getClassLoader().getResource(MESSAGES[i % MESSAGES.length]).toURI());
+				out.write("From MAILER-DAEMON Thu Sep  1 12:53:24 2011\n".getBytes(StandardCharsets.US_ASCII));
+				out.write(new String(Files.readAllBytes(message), StandardCharsets.ISO_8859_1)
+						.replace("\r\n", "\n").getBytes(StandardCharsets.ISO_8859_1));
+				out.write("\n".getBytes(StandardCharsets.US_ASCII));
+			}
+		}
+		return mbox;
+	}
+
+	static String getExpectedSubject(int messageIndex) {
+		switch (messageIndex % MESSAGES.length) {
+			case 0:
+				return "Test email";
+			case 1:
+				return "Test email for header";
+			default:
+				return "Test email for attached email";
+		}
+	}
+
+	@Test
+	public void parseSequentially() throws IOException {
+		Map<Integer, String> subjects = new ConcurrentHashMap<>();
+		try (MboxReader mboxReader = new MboxReader(mbox, PROFILE)) {
+			mboxReader.parseAll(new SubjectCollector(subjects));
+		}
+		assertSubjects(subjects);
+	}
+
+	@Test
+	public void parseInParallel() throws IOException {
+		Map<Integer, String> subjects = new ConcurrentHashMap<>();
+		try (MboxReader mboxReader = new MboxReader(mbox);
+			 EmailBatchParser batchParser = new EmailBatchParser(PROFILE, 3)) {
+			mboxReader.parseAll(batchParser, new SubjectCollector(subjects));
+		}
+		assertSubjects(subjects);
+	}
+
+	private void assertSubjects(Map<Integer, String> subjects) {
+		Assert.assertEquals(subjects.size(), 10);
+		for (int i = 0; i < 10; i++) {
+			Assert.assertEquals(subjects.get(i), getExpectedSubject(i));
+		}
+	}
+
+	private static final class SubjectCollector implements EmailBatchCallback<Integer> {
+
+		private final Map<Integer, String> subjects;
+
+		private SubjectCollector(Map<Integer, String> subjects) {
+			this.subjects = subjects;
+		}
+
+		public void parsed(Integer messageIndex, Email email) {
+			subjects.put(messageIndex, email.getEmailSubject());
+		}
+
+		public void failed(Integer messageIndex, Exception e) {
+			throw new AssertionError("message " + messageIndex + " failed", e);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package tech.blueglacier.manager;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import tech.blueglacier.configuration.ParseProfile;
+import tech.blueglacier.email.Email;
+import tech.blueglacier.storage.FixedStorageStrategy;
+import tech.blueglacier.storage.MemoryBudget;
+import tech.blueglacier.storage.MemoryStorageProvider;
+import tech.blueglacier.storage.TempFileStorageProvider;
+import tech.blueglacier.storage.ThresholdStorageProvider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EmailBatchParserTest {
+
+	private static final ParseProfile PROFILE = ParseProfile.custom()
+			.setMaxLineLen(-1)
+			.setMaxHeaderLen(-1)
+			.setStorageStrategy(new FixedStorageStrategy(new MemoryStorageProvider()))
+			.build();
+
+	private Path getPath(String messageFileName) throws URISyntaxException {
+		return Paths.get(this.getClass().getClassLoader().getResource(messageFileName).toURI());
+	}
+
+	@Test
+	public void failuresAreIsolatedPerItem() throws URISyntaxException {
+		List<Path> paths = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			paths.add(getPath("gmailMessage.eml"));
+			paths.add(getPath("inlineMessage.eml"));
+		}
+		Path missing = getPath("gmailMessage.eml").resolveSibling("doesNotExist.eml");
+		paths.add(missing);
+
+		final Map<Path, Integer> parsed = new ConcurrentHashMap<>();
+		final Map<Path, Exception> failed = new ConcurrentHashMap<>();
+		try (EmailBatchParser batchParser = new EmailBatchParser(PROFILE, 4)) {
+			batchParser.parseAll(paths, new EmailBatchCallback<Path>() {
+				public void parsed(Path path, Email email) {
+					Assert.assertNotNull(email.getEmailSubject());
+					parsed.merge(path, 1, Integer::sum);
+				}
+
+				public void failed(Path path, Exception e) {
+					failed.put(path, e);
+				}
+			});
+		}
+		Assert.assertEquals(parsed.get(getPath("gmailMessage.eml")).intValue(), 20);
+		Assert.assertEquals(parsed.get(getPath("inlineMessage.eml")).intValue(), 20);
+		Assert.assertEquals(failed.size(), 1);
+		Assert.assertTrue(failed.get(missing) instanceof IOException);
+	}
+
+	@Test
+	public void submitCompletesWithParsedEmail() throws Exception {
+		try (EmailBatchParser batchParser = new EmailBatchParser(PROFILE, 2)) {
+			CompletableFuture<Email> parsed = batchParser.submit(getPath("gmailMessage.eml"));
+			CompletableFuture<Email> failed = batchParser.submit(() -> {
+				throw new IOException("unreadable");
+			});
+			Assert.assertEquals(parsed.get().getAttachments().get(0).getAttachmentName(), "JMXParameters.txt");
+			try {
+				failed.get();
+				Assert.fail();
+			} catch (ExecutionException e) {
+				Assert.assertEquals(e.getCause().getMessage(), "unreadable");
+			}
+		}
+	}
+
+	@Test
+	public void exhaustedMemoryBudgetNeverDeadlocks() throws URISyntaxException {
+		MemoryBudget budget = new MemoryBudget(8 * 1024);
+		ParseProfile parseProfile = ParseProfile.copy(PROFILE)
+				.setStorageStrategy(new FixedStorageStrategy(new ThresholdStorageProvider(new TempFileStorageProvider(), 4096, budget)))
+				.build();
+		List<Path> paths = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			paths.add(getPath("multipleLargeImage.eml"));
+		}
+		// Parsed emails are kept, so their memory is never returned to the budget
+		final List<Email> parsed = new CopyOnWriteArrayList<>();
+		try (EmailBatchParser batchParser = new EmailBatchParser(parseProfile, 4, 8, budget)) {
+			batchParser.parseAll(paths, new EmailBatchCallback<Path>() {
+				public void parsed(Path path, Email email) {
+					parsed.add(email);
+				}
+
+				public void failed(Path path, Exception e) {
+					throw new AssertionError(path + " failed", e);
+				}
+			});
+		}
+		Assert.assertEquals(parsed.size(), 20);
+		Assert.assertTrue(budget.getUsedBytes() <= budget.getMaxBytes());
+		Assert.assertEquals(parsed.get(19).getAttachments().size(), parsed.get(0).getAttachments().size());
+		Assert.assertEquals(budget.getInFlightBytes(), 0);
+		for (Email email : parsed) {
+			email.close();
+		}
+		Assert.assertEquals(budget.getUsedBytes(), 0);
+	}
+
+	@Test
+	public void closedEmailsReturnTheirMemory() throws URISyntaxException {
+		MemoryBudget budget = new MemoryBudget(64 * 1024);
+		ParseProfile parseProfile = ParseProfile.copy(PROFILE)
+				.setStorageStrategy(new FixedStorageStrategy(new ThresholdStorageProvider(new TempFileStorageProvider(), 4096, budget)))
+				.build();
+		List<Path> paths = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			paths.add(getPath(i % 2 == 0 ? "multipleLargeImage.eml" : "emailWithAttachedEmails.eml"));
+		}
+		AtomicInteger attachments = new AtomicInteger();
+		try (EmailBatchParser batchParser = new EmailBatchParser(parseProfile, 4, 8, budget)) {
+			batchParser.parseAll(paths, new EmailBatchCallback<Path>() {
+				public void parsed(Path path, Email email) {
+					attachments.addAndGet(email.getAttachments().size());
+					email.close();
+				}
+
+				public void failed(Path path, Exception e) {
+					throw new AssertionError(path + " failed", e);
+				}
+			});
+		}
+		Assert.assertTrue(attachments.get() > 0);
+		Assert.assertEquals(budget.getUsedBytes(), 0);
+		Assert.assertEquals(budget.getInFlightBytes(), 0);
+	}
+}
@@ -0,0 +1,393 @@
+package tech.blueglacier.manager;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.MimeException;
+import org.apache.james.mime4j.storage.StorageOutputStream;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import tech.blueglacier.classification.SelectivePartFilter;
+import tech.blueglacier.configuration.ParseProfile;
+import tech.blueglacier.email.Attachment;
+import tech.blueglacier.email.Email;
+import tech.blueglacier.email.MessageAttachment;
+import tech.blueglacier.email.SkippedPart;
+import tech.blueglacier.email.UrlTemplateInlineImageUrlResolver;
+import tech.blueglacier.storage.FixedStorageStrategy;
+import tech.blueglacier.storage.MemoryStorageProvider;
+import tech.blueglacier.storage.SlabStorageProvider;
+import tech.blueglacier.storage.TempFileStorageProvider;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EmailParseManagerTest {
+
+	private static final ParseProfile RELAXED_PROFILE = ParseProfile.custom()
+			.setMaxLineLen(-1)
+			.setMaxHeaderLen(-1)
+			.setStorageStrategy(new FixedStorageStrategy(new MemoryStorageProvider()))
+			.build();
+
+	private Email getParsedEmail(String messageFileName, ParseProfile parseProfile) throws MimeException, IOException {
+		URL url = this.getClass().getClassLoader().getResource(messageFileName);
+		try (InputStream mailIn = new FileInputStream(new File(url.getFile()))) {
+			return new EmailParseManager(mailIn, parseProfile).getParsedEmail();
+		}
+	}
+
+	@Test
+	public void parseWithDefaultProfile() throws MimeException, IOException {
+		Email email = getParsedEmail("gmailMessage.eml", ParseProfile.DEFAULT);
+		Assert.assertEquals(email.getAttachments().get(0).getAttachmentName(), "JMXParameters.txt");
+	}
+
+	@Test
+	public void parseWithRelaxedProfile() throws MimeException, IOException {
+		Email email = getParsedEmail("multipleLargeImage.eml", RELAXED_PROFILE);
+		Assert.assertTrue(email.isAttachmentReplacedInHtmlBody());
+		Assert.assertEquals(email.getAttachments().size(), 3);
+	}
+
+	@Test
+	public void inlineImagesCanBeSwitchedOff() throws MimeException, IOException {
+		ParseProfile parseProfile = ParseProfile.copy(RELAXED_PROFILE).setInlineImagesInHtmlBody(false).build();
+		Email email = getParsedEmail("inlineMessage.eml", parseProfile);
+		Assert.assertFalse(email.isAttachmentReplacedInHtmlBody());
+		Assert.assertTrue(email.getAttachments().size() > 0);
+	}
+
+	@Test
+	public void inlineImagesCanBeReferencedByUrl() throws MimeException, IOException {
+		ParseProfile parseProfile = ParseProfile.copy(RELAXED_PROFILE)
+				.setInlineImageUrlResolver(new UrlTemplateInlineImageUrlResolver("/inline/{cid}"))
+				.build();
+		Email email = getParsedEmail("inlineMessage.eml", parseProfile);
+		Assert.assertFalse(email.isAttachmentReplacedInHtmlBody());
+		Assert.assertEquals(email.getAttachments().size(), 1);
+
+		Attachment image = email.getAttachments().get(0);
+		Assert.assertTrue(image.isReferencedInHtmlBody());
+		Assert.assertEquals(image.getContentId(), "image001.jpg@01CC4564.F3EFFFE0");
+		String htmlBody = IOUtils.toString(email.getHTMLEmailBody().getIs(), "UTF-8");
+		Assert.assertTrue(htmlBody.contains("src=\"/inline/image001.jpg%4001CC4564.F3EFFFE0\""));
+		Assert.assertFalse(htmlBody.contains("cid:"));
+	}
+
+	@Test
+	public void headersOnlyParseSkipsBody() throws MimeException, IOException {
+		final List<String> storedMimeTypes = new ArrayList<>();
+		ParseProfile parseProfile = ParseProfile.copy(RELAXED_PROFILE)
+				.setHeadersOnly(true)
+				.setStorageStrategy(bd -> {
+					storedMimeTypes.add(bd.getMimeType());
+					return new MemoryStorageProvider();
+				})
+				.build();
+		Email headersOnly = getParsedEmail("gmailMessage.eml", parseProfile);
+		Email full = getParsedEmail("gmailMessage.eml", RELAXED_PROFILE);
+
+		Assert.assertEquals(headersOnly.getEmailSubject(), full.getEmailSubject());
+		Assert.assertEquals(headersOnly.getFromEmailHeaderValue(), full.getFromEmailHeaderValue());
+		Assert.assertEquals(headersOnly.getToEmailHeaderValue(), full.getToEmailHeaderValue());
+		Assert.assertEquals(headersOnly.getHeader().getField("Message-ID").getBody(),
+				full.getHeader().getField("Message-ID").getBody());
+		Assert.assertNull(headersOnly.getHTMLEmailBody());
+		Assert.assertNull(headersOnly.getPlainTextEmailBody());
+		Assert.assertTrue(headersOnly.getAttachments().isEmpty());
+		Assert.assertTrue(storedMimeTypes.isEmpty());
+	}
+
+	@Test
+	public void filteredPartsAreRecordedAsSkipped() throws MimeException, IOException {
+		ParseProfile parseProfile = ParseProfile.copy(RELAXED_PROFILE)
+				.setPartFilter(SelectivePartFilter.custom().addMimeType("text/html").addFileExtension("pdf").build())
+				.build();
+		Email email = getParsedEmail("gmailMessage.eml", parseProfile);
+		Assert.assertNotNull(email.getHTMLEmailBody());
+		Assert.assertNull(email.getPlainTextEmailBody());
+		Assert.assertTrue(email.getAttachments().isEmpty());
+
+		List<SkippedPart> skippedParts = email.getSkippedParts();
+		Assert.assertEquals(skippedParts.size(), 2);
+		Assert.assertEquals(skippedParts.get(0).getMimeType(), "text/plain");
+		Assert.assertNull(skippedParts.get(0).getAttachmentName());
+		Assert.assertEquals(skippedParts.get(1).getAttachmentName(), "JMXParameters.txt");
+		Assert.assertEquals(skippedParts.get(1).getReason(), SkippedPart.Reason.FILTERED);
+	}
+
+	@Test
+	public void oversizedAttachmentsAreSkipped() throws MimeException, IOException {
+		Email email = getParsedEmail("multipleLargeImage.eml", RELAXED_PROFILE);
+		int largestAttachmentSize = 0;
+		for (Attachment attachment : email.getAttachments()) {
+			largestAttachmentSize = Math.max(largestAttachmentSize, attachment.getAttachmentSize());
+		}
+
+		ParseProfile parseProfile = ParseProfile.copy(RELAXED_PROFILE).setMaxDecodedPartSize(largestAttachmentSize - 1).build();
+		email = getParsedEmail("multipleLargeImage.eml", parseProfile);
+		Assert.assertFalse(email.getSkippedParts().isEmpty());
+		for (SkippedPart skippedPart : email.getSkippedParts()) {
+			Assert.assertEquals(skippedPart.getReason(), SkippedPart.Reason.TOO_LARGE);
+		}
+		for (Attachment attachment : email.getAttachments()) {
+			Assert.assertTrue(attachment.getAttachmentSize() < largestAttachmentSize);
+		}
+	}
+
+	@Test
+	public void attachedMessagesAreParsedOnAccess() throws MimeException, IOException {
+		Email email = getParsedEmail("emailWithAttachedEmails.eml", RELAXED_PROFILE);
+		MessageAttachment attachedMessage = getAttachedMessage(email);
+		Assert.assertTrue(attachedMessage.isParseable());
+
+		Email nestedEmail = attachedMessage.getEmail();
+		Assert.assertEquals(nestedEmail.getEmailSubject(), "How to determine the size of an email and the attachments?");
+		Assert.assertNotNull(nestedEmail.getPlainTextEmailBody());
+		Assert.assertSame(attachedMessage.getEmail(), nestedEmail);
+	}
+
+	@Test
+	public void attachedMessagesRespectDepthLimit() throws MimeException, IOException {
+		ParseProfile parseProfile = ParseProfile.copy(RELAXED_PROFILE).setMaxNestedMessageDepth(0).build();
+		MessageAttachment attachedMessage = getAttachedMessage(getParsedEmail("emailWithAttachedEmails.eml", parseProfile));
+		Assert.assertFalse(attachedMessage.isParseable());
+		Assert.assertNull(attachedMessage.getEmail());
+		Assert.assertTrue(attachedMessage.getAttachmentSize() > 0);
+	}
+
+	private MessageAttachment getAttachedMessage(Email email) {
+		for (Attachment attachment : email.getAttachments()) {
+			if (attachment instanceof MessageAttachment) {
+				return (MessageAttachment) attachment;
+			}
+		}
+		Assert.fail("no attached message");
+		return null;
+	}
+
+	@Test
+	public void deferredDecodingMatchesDecodedContent() throws MimeException, IOException {
+		ParseProfile parseProfile = ParseProfile.copy(RELAXED_PROFILE).setContentDecoding(ParseProfile.ContentDecoding.DEFERRED).build();
+		for (String messageFileName : new String[]{"gmailMessage.eml", "multipleLargeImage.eml", "emailWithExtraPlainTextPart.eml"}) {
+			Email decoded = getParsedEmail(messageFileName, RELAXED_PROFILE);
+			Email deferred = getParsedEmail(messageFileName, parseProfile);
+
+			assertSameContent(deferred.getPlainTextEmailBody(), decoded.getPlainTextEmailBody());
+			assertSameContent(deferred.getHTMLEmailBody(), decoded.getHTMLEmailBody());
+			Assert.assertEquals(deferred.getAttachments().size(), decoded.getAttachments().size());
+			for (int i = 0; i < decoded.getAttachments().size(); i++) {
+				assertSameContent(deferred.getAttachments().get(i), decoded.getAttachments().get(i));
+			}
+			Assert.assertEquals(deferred.getEmailSize(), decoded.getEmailSize());
+		}
+	}
+
+	@Test
+	public void deferredDecodingMatchesDecodedSizes() throws MimeException, IOException {
+		ParseProfile parseProfile = ParseProfile.copy(RELAXED_PROFILE).setContentDecoding(ParseProfile.ContentDecoding.DEFERRED).build();
+		Email decoded = getParsedEmail("inlineEmailWithPenguins.eml", RELAXED_PROFILE);
+		Email deferred = getParsedEmail("inlineEmailWithPenguins.eml", parseProfile);
+		Assert.assertTrue(deferred.isAttachmentReplacedInHtmlBody());
+		Assert.assertEquals(deferred.getDecodedEmailSize(), decoded.getDecodedEmailSize());
+		Assert.assertEquals(deferred.getEmailSize(), decoded.getEmailSize());
+	}
+
+	@Test
+	public void undecodedInlineImagesStayAttachments() throws MimeException, IOException {
+		ParseProfile parseProfile = ParseProfile.copy(RELAXED_PROFILE).setContentDecoding(ParseProfile.ContentDecoding.NONE).build();
+		Email undecoded = getParsedEmail("inlineEmailWithPenguins.eml", parseProfile);
+		Email decoded = getParsedEmail("inlineEmailWithPenguins.eml", RELAXED_PROFILE);
+		Assert.assertTrue(decoded.isAttachmentReplacedInHtmlBody());
+
+		Assert.assertFalse(undecoded.isAttachmentReplacedInHtmlBody());
+		Assert.assertEquals(undecoded.getAttachments().size(), decoded.getAttachments().size() + 1);
+		String html = IOUtils.toString(undecoded.getHTMLEmailBody().getIs(), "US-ASCII");
+		Assert.assertTrue(html.contains("src=3D\"cid:98FABED9132F2642A554AE86A7A5B3A0@Compaq.com\""));
+		Assert.assertFalse(html.contains("data:"));
+		Assert.assertEquals(undecoded.getAttachments().get(0).getAttachmentName(), "Picture (Device Independent Bitmap) 1.jpg");
+	}
+
+	@Test
+	public void bufferedSourcesMatchStreamedContent() throws MimeException, IOException, URISyntaxException {
+		ParseProfile deferredProfile = ParseProfile.copy(RELAXED_PROFILE).setContentDecoding(ParseProfile.ContentDecoding.DEFERRED).build();
+		for (ParseProfile parseProfile : new ParseProfile[]{RELAXED_PROFILE, deferredProfile}) {
+			for (String messageFileName : new String[]{"gmailMessage.eml", "multipleLargeImage.eml", "emailWithAttachedEmails.eml"}) {
+				Path path = Paths.get(this.getClass().getClassLoader().getResource(messageFileName).toURI());
+				Email streamed = getParsedEmail(messageFileName, parseProfile);
+				Email mapped = new EmailParseManager(path, parseProfile).getParsedEmail();
+				Email wrapped = new EmailParseManager(Files.readAllBytes(path), parseProfile).getParsedEmail();
+				for (Email email : new Email[]{mapped, wrapped}) {
+					assertSameContent(email.getPlainTextEmailBody(), streamed.getPlainTextEmailBody());
+					assertSameContent(email.getHTMLEmailBody(), streamed.getHTMLEmailBody());
+					Assert.assertEquals(email.getAttachments().size(), streamed.getAttachments().size());
+					for (int i = 0; i < streamed.getAttachments().size(); i++) {
+						assertSameContent(email.getAttachments().get(i), streamed.getAttachments().get(i));
+					}
+					Assert.assertEquals(email.getEmailSize(), streamed.getEmailSize());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void undecodedPartsAreNotCopiedFromBuffers() throws MimeException, IOException, URISyntaxException {
+		AtomicInteger storedParts = new AtomicInteger();
+		ParseProfile parseProfile = ParseProfile.copy(RELAXED_PROFILE)
+				.setContentDecoding(ParseProfile.ContentDecoding.DEFERRED)
+				.setStorageStrategy(new FixedStorageStrategy(new MemoryStorageProvider() {
+					@Override
+					public StorageOutputStream createStorageOutputStream() {
+						storedParts.incrementAndGet();
+						return super.createStorageOutputStream();
+					}
+				}))
+				.build();
+		Path path = Paths.get(this.getClass().getClassLoader().getResource("gmailMessage.eml").toURI());
+		Email email = new EmailParseManager(path, parseProfile).getParsedEmail();
+		Assert.assertEquals(email.getAttachments().get(0).getAttachmentName(), "JMXParameters.txt");
+		Assert.assertTrue(IOUtils.toByteArray(email.getAttachments().get(0).getIs()).length > 0);
+		Assert.assertEquals(storedParts.get(), 0);
+	}
+
+	@Test
+	public void sourceReferencesDecodeFromTheMessage() throws MimeException, IOException, URISyntaxException {
+		AtomicInteger storedParts = new AtomicInteger();
+		ParseProfile parseProfile = ParseProfile.copy(RELAXED_PROFILE)
+				.setSourceReferences(true)
+				.setInlineImagesInHtmlBody(false)
+				.setStorageStrategy(new FixedStorageStrategy(new MemoryStorageProvider() {
+					@Override
+					public StorageOutputStream createStorageOutputStream() {
+						storedParts.incrementAndGet();
+						return super.createStorageOutputStream();
+					}
+				}))
+				.build();
+		Path path = Paths.get(this.getClass().getClassLoader().getResource("multipleLargeImage.eml").toURI());
+		Email referenced = new EmailParseManager(path, parseProfile).getParsedEmail();
+		Assert.assertEquals(storedParts.get(), 0);
+
+		Email decoded = getParsedEmail("multipleLargeImage.eml", ParseProfile.copy(RELAXED_PROFILE).setInlineImagesInHtmlBody(false).build());
+		assertSameContent(referenced.getHTMLEmailBody(), decoded.getHTMLEmailBody());
+		Assert.assertEquals(referenced.getAttachments().size(), decoded.getAttachments().size());
+		for (int i = 0; i < decoded.getAttachments().size(); i++) {
+			assertSameContent(referenced.getAttachments().get(i), decoded.getAttachments().get(i));
+		}
+	}
+
+	@Test
+	public void slicesComeFromTheirOwnPart() throws MimeException, IOException {
+		String report = "Report body text";
+		byte[] message = ("From: sender@example.com\r\n"
+				+ "Subject: Quoted report\r\n"
+				+ "MIME-Version: 1.0\r\n"
+				+ "Content-Type: multipart/mixed; boundary=\"part\"\r\n\r\n"
+				+ "--part\r\n"
+				+ "Content-Type: text/plain; charset=us-ascii\r\n"
+				+ "Content-Transfer-Encoding: quoted-printable\r\n\r\n"
+				+ report + "\r\n"
+				+ "--part\r\n"
+				+ "Content-Type: text/plain; charset=us-ascii; name=\"report.txt\"\r\n"
+				+ "Content-Disposition: attachment; filename=\"report.txt\"\r\n\r\n"
+				+ report + "\r\n"
+				+ "--part--\r\n").getBytes("US-ASCII");
+		Email email = new EmailParseManager(message, RELAXED_PROFILE).getParsedEmail();
+		Attachment attachment = email.getAttachments().get(0);
+		Assert.assertEquals(attachment.getAttachmentName(), "report.txt");
+
+		// The decoded body holds a copy, so the attachment must not be a slice of the body's bytes
+		message[new String(message, "US-ASCII").indexOf(report)] = 'X';
+		Assert.assertEquals(IOUtils.toString(attachment.getIs(), "US-ASCII"), report);
+	}
+
+	@Test
+	public void attachmentsAreSavedDecoded() throws MimeException, IOException {
+		ParseProfile deferredProfile = ParseProfile.copy(RELAXED_PROFILE).setContentDecoding(ParseProfile.ContentDecoding.DEFERRED).build();
+		ParseProfile tempFileProfile = ParseProfile.copy(RELAXED_PROFILE).setStorageStrategy(new FixedStorageStrategy(new TempFileStorageProvider())).build();
+		for (ParseProfile parseProfile : new ParseProfile[]{RELAXED_PROFILE, deferredProfile, tempFileProfile}) {
+			Attachment attachment = getParsedEmail("multipleLargeImage.eml", parseProfile).getAttachments().get(0);
+			byte[] expected = IOUtils.toByteArray(attachment.getIs());
+			Path target = Files.createTempDirectory("test").resolve("saved");
+			try {
+				attachment.saveTo(target);
+				Assert.assertEquals(Files.readAllBytes(target), expected);
+			} finally {
+				Files.deleteIfExists(target);
+				Files.delete(target.getParent());
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			Assert.assertEquals(attachment.transferTo(Channels.newChannel(out)), expected.length);
+			Assert.assertEquals(out.toByteArray(), expected);
+		}
+	}
+
+	@Test
+	public void closedEmailsReturnTheirSlabs() throws MimeException, IOException {
+		SlabStorageProvider slabs = new SlabStorageProvider(16 * 1024 * 1024);
+		ParseProfile parseProfile = ParseProfile.copy(RELAXED_PROFILE).setStorageStrategy(new FixedStorageStrategy(slabs)).build();
+		long allocatedBytes = 0;
+		for (int i = 0; i < 3; i++) {
+			try (Email email = getParsedEmail("multipleLargeImage.eml", parseProfile)) {
+				Assert.assertTrue(slabs.getUsedBytes() > 0);
+				Assert.assertTrue(IOUtils.toByteArray(email.getAttachments().get(0).getIs()).length > 0);
+			}
+			Assert.assertEquals(slabs.getUsedBytes(), 0);
+			// Later messages of the same shape run on the slabs pooled by the first one
+			if (i == 0) {
+				allocatedBytes = slabs.getAllocatedBytes();
+			}
+			Assert.assertEquals(slabs.getAllocatedBytes(), allocatedBytes);
+		}
+	}
+
+	@Test
+	public void attachmentRangesMatchContent() throws MimeException, IOException {
+		ParseProfile deferredProfile = ParseProfile.copy(RELAXED_PROFILE).setContentDecoding(ParseProfile.ContentDecoding.DEFERRED).build();
+		ParseProfile tempFileProfile = ParseProfile.copy(RELAXED_PROFILE).setStorageStrategy(new FixedStorageStrategy(new TempFileStorageProvider())).build();
+		for (ParseProfile parseProfile : new ParseProfile[]{RELAXED_PROFILE, deferredProfile, tempFileProfile}) {
+			Attachment attachment = getParsedEmail("multipleLargeImage.eml", parseProfile).getAttachments().get(0);
+			byte[] content = IOUtils.toByteArray(attachment.getIs());
+			try (InputStream range = attachment.openRange(1000, 500)) {
+				Assert.assertEquals(IOUtils.toByteArray(range), Arrays.copyOfRange(content, 1000, 1500));
+			}
+			try (InputStream range = attachment.openRange(content.length - 10, 500)) {
+				Assert.assertEquals(IOUtils.toByteArray(range).length, 10);
+			}
+		}
+	}
+
+	private void assertSameContent(Attachment actual, Attachment expected) throws IOException {
+		if (expected == null) {
+			Assert.assertNull(actual);
+			return;
+		}
+		Assert.assertEquals(IOUtils.toByteArray(actual.getIs()), IOUtils.toByteArray(expected.getIs()));
+		Assert.assertEquals(actual.getAttachmentSize(), expected.getAttachmentSize());
+	}
+
+	@Test
+	public void profileIsSharedAcrossThreads() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Email>> results = new ArrayList<>();
+			for (int i = 0; i < 16; i++) {
+				results.add(executor.submit(() -> getParsedEmail("gmailMessage.eml", RELAXED_PROFILE)));
+			}
+			for (Future<Email> result : results) {
+				Assert.assertEquals(result.get().getAttachments().get(0).getAttachmentName(), "JMXParameters.txt");
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
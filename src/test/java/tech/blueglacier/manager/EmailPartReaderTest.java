@@ -0,0 +1,71 @@
+package tech.blueglacier.manager;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.MimeException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import tech.blueglacier.classification.PartRole;
+import tech.blueglacier.configuration.ParseProfile;
+import tech.blueglacier.email.Email;
+
+import java.io.*;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+public class EmailPartReaderTest {
+
+	private InputStream openMessage(String messageFileName) throws FileNotFoundException {
+		URL url = this.getClass().getClassLoader().getResource(messageFileName);
+		return new FileInputStream(new File(url.getFile()));
+	}
+
+	@Test
+	public void partsAreReadInOrder() throws MimeException, IOException {
+		try (InputStream mailIn = openMessage("gmailMessage.eml")) {
+			EmailPartReader reader = new EmailPartReader(mailIn);
+			Assert.assertEquals(reader.getHeader().getField("Subject").getBody(), "Test email");
+
+			List<String> mimeTypes = new ArrayList<>();
+			for (EmailPart part = reader.nextPart(); part != null; part = reader.nextPart()) {
+				mimeTypes.add(part.getBd().getMimeType());
+			}
+			Assert.assertEquals(mimeTypes.size(), 3);
+			Assert.assertEquals(mimeTypes.get(0), "text/plain");
+			Assert.assertEquals(mimeTypes.get(1), "text/html");
+			Assert.assertEquals(mimeTypes.get(2), "text/plain");
+			Assert.assertNull(reader.nextPart());
+		}
+	}
+
+	@Test
+	public void skippedPartsDoNotAffectLaterParts() throws MimeException, IOException {
+		Email email;
+		try (InputStream mailIn = openMessage("gmailMessage.eml")) {
+			email = new EmailParseManager(mailIn).getParsedEmail();
+		}
+		try (InputStream mailIn = openMessage("gmailMessage.eml")) {
+			EmailPartReader reader = new EmailPartReader(mailIn);
+			EmailPart part = reader.nextPart();
+			while (part.getClassification().getRole() != PartRole.ATTACHMENT) {
+				part = reader.nextPart();
+			}
+			Assert.assertEquals(part.getClassification().getAttachmentName(), "JMXParameters.txt");
+			Assert.assertEquals(part.getHeader().getField("Content-Disposition").getBody(), "attachment; filename=\"JMXParameters.txt\"");
+			Assert.assertEquals(IOUtils.toByteArray(part.getIs()), IOUtils.toByteArray(email.getAttachments().get(0).getIs()));
+		}
+	}
+
+	@Test
+	public void attachedMessagesAreSinglePart() throws MimeException, IOException {
+		try (InputStream mailIn = openMessage("emailWithAttachedEmails.eml")) {
+			EmailPartReader reader = new EmailPartReader(mailIn, ParseProfile.DEFAULT);
+			List<String> mimeTypes = new ArrayList<>();
+			for (EmailPart part = reader.nextPart(); part != null; part = reader.nextPart()) {
+				mimeTypes.add(part.getBd().getMimeType());
+			}
+			Assert.assertTrue(mimeTypes.contains("message/rfc822"));
+			Assert.assertEquals(mimeTypes.indexOf("message/rfc822"), mimeTypes.lastIndexOf("message/rfc822"));
+		}
+	}
+}
@@ -4,7 +4,10 @@ import org.apache.james.mime4j.storage.DefaultStorageProvider;
 import org.testng.annotations.BeforeClass;
 import tech.blueglacier.email.Attachment;
 import tech.blueglacier.email.Email;
+import tech.blueglacier.storage.FixedStorageStrategy;
 import tech.blueglacier.storage.MemoryStorageProvider;
+import tech.blueglacier.storage.PartTypeStorageStrategy;
+import tech.blueglacier.storage.StorageStrategy;
 import tech.blueglacier.storage.TempFileStorageProvider;
 import tech.blueglacier.storage.ThresholdStorageProvider;
 import tech.blueglacier.util.MimeWordDecoder;
@@ -17,6 +20,8 @@ import org.apache.james.mime4j.codec.DecodeMonitor;
 import org.apache.james.mime4j.message.DefaultBodyDescriptorBuilder;
 import org.apache.james.mime4j.parser.ContentHandler;
 import org.apache.james.mime4j.parser.MimeStreamParser;
+import org.apache.james.mime4j.storage.StorageProvider;
+import org.apache.james.mime4j.stream.BodyDescriptor;
 import org.apache.james.mime4j.stream.BodyDescriptorBuilder;
 import org.apache.james.mime4j.stream.MimeConfig;
 import org.testng.Assert;
@@ -172,6 +177,26 @@ public class ParserTest {
         }
 	}
 
+	@Test
+	public void testStorageStrategyIsHonored() throws IOException, MimeException {
+		ContentHandler contentHandler = new CustomContentHandler(new FixedStorageStrategy(new MemoryStorageProvider()));
+		Email email = getParsedEmail("gmailMessage.eml", contentHandler);
+		Assert.assertEquals(email.getPlainTextEmailBody().getIs().getClass(), ByteArrayInputStream.class);
+		Assert.assertEquals(email.getAttachments().get(0).getIs().getClass(), ByteArrayInputStream.class);
+		Assert.assertEquals(generateCheckSum(email.getAttachments().get(0).getIs()), "306c36617f39004e656974fd383cfe36f3cfe090");
+	}
+
+	@Test
+	public void testPartTypeStorageStrategy() throws IOException, MimeException {
+		TempFileStorageProvider diskProvider = new TempFileStorageProvider();
+		ContentHandler contentHandler = new CustomContentHandler(new PartTypeStorageStrategy(new MemoryStorageProvider(),
+				diskProvider, diskProvider, 1024 * 1024));
+		Email email = getParsedEmail("gmailMessage.eml", contentHandler);
+		Assert.assertEquals(email.getPlainTextEmailBody().getIs().getClass(), ByteArrayInputStream.class);
+		Assert.assertEquals(email.getAttachments().get(0).getIs().getClass(), BufferedInputStream.class);
+		Assert.assertEquals(email.getAttachments().get(0).getAttachmentName(), "JMXParameters.txt");
+	}
+
 	@Test
 	public void testEmailWithImageContentType() throws MimeException, IOException{
 		Email email = getEmailWithImageContentType();
@@ -441,6 +466,20 @@ public class ParserTest {
 		assertUnidentifiedAttachmentIgnored(attachments);
 	}
 
+	@Test
+	public void unidentifiedAttachmentIsNeverStored() throws MimeException, IOException {
+		final List<String> storedMimeTypes = new ArrayList<String>();
+		ContentHandler contentHandler = new CustomContentHandler(new StorageStrategy() {
+			public StorageProvider getStorageProvider(BodyDescriptor bd) {
+				storedMimeTypes.add(bd.getMimeType());
+				return new MemoryStorageProvider();
+			}
+		});
+		Email email = getParsedEmail("unIdentifiedAttachmentEmail.eml", contentHandler);
+		assertUnidentifiedAttachmentIgnored(email.getAttachments());
+		Assert.assertFalse(storedMimeTypes.contains("application/octet-stream"));
+	}
+
 	private void assertUnidentifiedAttachmentIgnored(
 			List<Attachment> attachments) {
 		Assert.assertTrue(attachments.size() == 0);
@@ -0,0 +1,84 @@
+package tech.blueglacier.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.storage.DefaultStorageProvider;
+import org.apache.james.mime4j.storage.Storage;
+import org.apache.james.mime4j.storage.StorageOutputStream;
+import org.apache.james.mime4j.storage.StorageProvider;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class AppendableStorageTest {
+
+	@DataProvider(name = "providers")
+	public Object[][] providers() {
+		return new Object[][]{
+				{new MemoryStorageProvider()},
+				{new TempFileStorageProvider()},
+				{new ThresholdStorageProvider(new MemoryStorageProvider(), 100)},
+				{new ThresholdStorageProvider(new TempFileStorageProvider(), 100)}
+		};
+	}
+
+	@Test(dataProvider = "providers")
+	public void appendKeepsContentInOrder(StorageProvider provider) throws IOException {
+		Random random = new Random(42);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		byte[] content = randomBytes(random, 40);
+		expected.write(content);
+
+		StorageOutputStream out = provider.createStorageOutputStream();
+		out.write(content);
+		Storage storage = out.toStorage();
+		Assert.assertTrue(storage instanceof AppendableStorage);
+
+		// Grows across the threshold of the threshold providers and within a single append
+		for (int length : new int[]{30, 50, 0, 2500}) {
+			content = randomBytes(random, length);
+			expected.write(content);
+			Assert.assertEquals(((AppendableStorage) storage).append(new ByteArrayInputStream(content)), length);
+			Assert.assertEquals(IOUtils.toByteArray(storage.getInputStream()), expected.toByteArray());
+		}
+		storage.delete();
+	}
+
+	@Test(dataProvider = "providers", expectedExceptions = IllegalStateException.class)
+	public void appendToDeletedStorageFails(StorageProvider provider) throws IOException {
+		Storage storage = provider.store(new ByteArrayInputStream(new byte[10]));
+		storage.delete();
+		((AppendableStorage) storage).append(new ByteArrayInputStream(new byte[10]));
+	}
+
+	@Test
+	public void defaultStrategyAppendsInPlace() throws IOException {
+		StorageProvider configured = DefaultStorageProvider.getInstance();
+		DefaultStorageProvider.setInstance(DefaultStorageStrategy.BUILT_IN_DEFAULT);
+		try {
+			Storage storage = new DefaultStorageStrategy().getStorageProvider(null).store(new ByteArrayInputStream(new byte[10]));
+			if (DefaultStorageStrategy.BUILT_IN_DEFAULT instanceof org.apache.james.mime4j.storage.ThresholdStorageProvider) {
+				Assert.assertTrue(storage instanceof AppendableStorage);
+			}
+			storage.delete();
+
+			// A provider set by the caller is never replaced, even one of the same class
+			StorageProvider custom = new org.apache.james.mime4j.storage.ThresholdStorageProvider(
+					new org.apache.james.mime4j.storage.TempFileStorageProvider(), 4096);
+			DefaultStorageProvider.setInstance(custom);
+			Assert.assertSame(new DefaultStorageStrategy().getStorageProvider(null), custom);
+		} finally {
+			DefaultStorageProvider.setInstance(configured);
+		}
+	}
+
+	private byte[] randomBytes(Random random, int length) {
+		byte[] content = new byte[length];
+		random.nextBytes(content);
+		return content;
+	}
+}
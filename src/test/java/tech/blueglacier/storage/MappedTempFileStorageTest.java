@@ -0,0 +1,71 @@
+package tech.blueglacier.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.storage.Storage;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import tech.blueglacier.util.ByteBufferInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class MappedTempFileStorageTest {
+
+	private final TempFileStorageProvider provider = new TempFileStorageProvider("m4j", null, null, 1000);
+
+	@Test
+	public void largeFilesAreReadThroughMapping() throws IOException {
+		byte[] content = randomBytes(5000);
+		Storage storage = provider.store(new ByteArrayInputStream(content));
+		for (int i = 0; i < 2; i++) {
+			try (InputStream in = storage.getInputStream()) {
+				Assert.assertTrue(in instanceof ByteBufferInputStream);
+				Assert.assertEquals(IOUtils.toByteArray(in), content);
+			}
+		}
+		try (InputStream in = ((RangedStorage) storage).getInputStream(4000, 2000)) {
+			Assert.assertEquals(IOUtils.toByteArray(in), Arrays.copyOfRange(content, 4000, 5000));
+		}
+		storage.delete();
+	}
+
+	@Test
+	public void smallFilesAreReadAsStreams() throws IOException {
+		byte[] content = randomBytes(500);
+		Storage storage = provider.store(new ByteArrayInputStream(content));
+		try (InputStream in = storage.getInputStream()) {
+			Assert.assertFalse(in instanceof ByteBufferInputStream);
+			Assert.assertEquals(IOUtils.toByteArray(in), content);
+		}
+		storage.delete();
+	}
+
+	@Test
+	public void viewFollowsAppends() throws IOException {
+		byte[] content = randomBytes(3000);
+		Storage storage = new TempFileStorageProvider().store(new ByteArrayInputStream(content, 0, 2000));
+		ByteBuffer view = ((ViewableStorage) storage).getByteBuffer();
+		Assert.assertTrue(view.isReadOnly());
+		Assert.assertEquals(view.remaining(), 2000);
+
+		((AppendableStorage) storage).append(new ByteArrayInputStream(content, 2000, 1000));
+		view = ((ViewableStorage) storage).getByteBuffer();
+		byte[] viewed = new byte[view.remaining()];
+		view.get(viewed);
+		Assert.assertEquals(viewed, content);
+		try (InputStream in = storage.getInputStream()) {
+			Assert.assertEquals(IOUtils.toByteArray(in), content);
+		}
+		storage.delete();
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] content = new byte[length];
+		new Random(42).nextBytes(content);
+		return content;
+	}
+}
@@ -0,0 +1,151 @@
+package tech.blueglacier.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.storage.Storage;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class MemoryBudgetTest {
+
+	@Test
+	public void reservationsStayWithinBudget() {
+		MemoryBudget budget = new MemoryBudget(100);
+		Assert.assertTrue(budget.tryReserve(60));
+		Assert.assertFalse(budget.tryReserve(50));
+		Assert.assertTrue(budget.tryReserve(40));
+		Assert.assertEquals(budget.getUsedBytes(), 100);
+		Assert.assertEquals(budget.getAvailableBytes(), 0);
+		budget.release(60);
+		Assert.assertEquals(budget.getAvailableBytes(), 60);
+	}
+
+	@Test
+	public void waitersWakeUpOnRelease() throws InterruptedException {
+		MemoryBudget budget = new MemoryBudget(100);
+		Assert.assertTrue(budget.tryReserve(100));
+		Assert.assertFalse(budget.awaitAvailable(10, TimeUnit.MILLISECONDS));
+		Thread releaser = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			budget.release(100);
+		});
+		releaser.start();
+		Assert.assertTrue(budget.awaitAvailable(10, TimeUnit.SECONDS));
+		releaser.join();
+	}
+
+	@Test
+	public void exhaustedBudgetSpillsToBackend() throws IOException {
+		MemoryBudget budget = new MemoryBudget(3000);
+		ThresholdStorageProvider provider = new ThresholdStorageProvider(new TempFileStorageProvider(), 2048, budget);
+		byte[] content = randomBytes(5000);
+
+		Storage first = provider.store(new ByteArrayInputStream(content));
+		Assert.assertEquals(budget.getUsedBytes(), 2048);
+		Storage second = provider.store(new ByteArrayInputStream(content));
+		Assert.assertTrue(budget.getUsedBytes() <= 3000);
+		for (Storage storage : new Storage[]{first, second}) {
+			try (InputStream in = storage.getInputStream()) {
+				Assert.assertEquals(IOUtils.toByteArray(in), content);
+			}
+		}
+
+		first.delete();
+		second.delete();
+		Assert.assertEquals(budget.getUsedBytes(), 0);
+	}
+
+	@Test
+	public void appendsReserveFromBudget() throws IOException {
+		MemoryBudget budget = new MemoryBudget(150);
+		ThresholdStorageProvider provider = new ThresholdStorageProvider(new MemoryStorageProvider(), 1000, budget);
+		byte[] content = randomBytes(300);
+		Storage storage = provider.store(new ByteArrayInputStream(content, 0, 100));
+		Assert.assertEquals(budget.getUsedBytes(), 100);
+		((AppendableStorage) storage).append(new ByteArrayInputStream(content, 100, 200));
+		Assert.assertTrue(budget.getUsedBytes() <= 150);
+		try (InputStream in = storage.getInputStream()) {
+			Assert.assertEquals(IOUtils.toByteArray(in), content);
+		}
+		storage.delete();
+		Assert.assertEquals(budget.getUsedBytes(), 0);
+	}
+
+	@Test
+	public void failedWritesReturnTheirReservation() {
+		MemoryBudget budget = new MemoryBudget(3000);
+		ThresholdStorageProvider provider = new ThresholdStorageProvider(new TempFileStorageProvider(), 2048, budget);
+		for (int length : new int[]{1000, 5000}) {
+			InputStream failing = new SequenceInputStream(new ByteArrayInputStream(randomBytes(length)), new InputStream() {
+				@Override
+				public int read() throws IOException {
+					throw new IOException("read failed");
+				}
+			});
+			try {
+				provider.store(failing);
+				Assert.fail();
+			} catch (IOException e) {
+				Assert.assertEquals(e.getMessage(), "read failed");
+			}
+			Assert.assertEquals(budget.getUsedBytes(), 0);
+		}
+	}
+
+	@Test
+	public void concurrentDeletesReleaseOnce() throws Exception {
+		MemoryBudget budget = new MemoryBudget(100000);
+		ThresholdStorageProvider provider = new ThresholdStorageProvider(new MemoryStorageProvider(), 1000, budget);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int i = 0; i < 100; i++) {
+				Storage storage = provider.store(new ByteArrayInputStream(randomBytes(500)));
+				List<Callable<Object>> deletes = Collections.nCopies(4, Executors.callable(storage::delete));
+				for (Future<Object> delete : executor.invokeAll(deletes)) {
+					delete.get();
+				}
+				Assert.assertEquals(budget.getUsedBytes(), 0);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void trackedReservationsAreInFlight() {
+		MemoryBudget budget = new MemoryBudget(100);
+		Assert.assertTrue(budget.tryReserve(30));
+		MemoryBudget.Tracking tracking = budget.track();
+		try {
+			Assert.assertTrue(budget.tryReserve(50));
+			budget.release(10);
+			Assert.assertEquals(budget.getInFlightBytes(), 40);
+		} finally {
+			tracking.close();
+		}
+		Assert.assertEquals(budget.getInFlightBytes(), 0);
+		Assert.assertEquals(budget.getUsedBytes(), 70);
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] content = new byte[length];
+		new Random(42).nextBytes(content);
+		return content;
+	}
+}
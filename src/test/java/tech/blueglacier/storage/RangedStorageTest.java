@@ -0,0 +1,77 @@
+package tech.blueglacier.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.storage.Storage;
+import org.apache.james.mime4j.storage.StorageProvider;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class RangedStorageTest {
+
+	private static final int SIZE = 5000;
+
+	@DataProvider(name = "providers")
+	public Object[][] providers() {
+		return new Object[][]{
+				{new MemoryStorageProvider()},
+				{new TempFileStorageProvider()},
+				{new ThresholdStorageProvider(new MemoryStorageProvider(), 100)},
+				{new ThresholdStorageProvider(new TempFileStorageProvider(), 100)}
+		};
+	}
+
+	@Test(dataProvider = "providers")
+	public void rangesMatchContent(StorageProvider provider) throws IOException {
+		byte[] content = randomBytes();
+		Storage storage = provider.store(new ByteArrayInputStream(content));
+		Assert.assertTrue(storage instanceof RangedStorage);
+		assertRanges((RangedStorage) storage, content);
+		storage.delete();
+	}
+
+	@Test
+	public void bufferStorageRangesMatchContent() throws IOException {
+		byte[] content = randomBytes();
+		byte[] padded = new byte[SIZE + 20];
+		System.arraycopy(content, 0, padded, 10, SIZE);
+		ByteBuffer buffer = ByteBuffer.wrap(padded);
+		buffer.position(10).limit(10 + SIZE);
+		assertRanges(new ByteBufferStorage(buffer), content);
+	}
+
+	// Within and across the head of the threshold storages, within the tail and past the end
+	private void assertRanges(RangedStorage storage, byte[] content) throws IOException {
+		long[][] ranges = {{0, SIZE}, {50, 30}, {90, 30}, {100, 0}, {150, 1000}, {SIZE - 10, 100}, {SIZE + 1, 10}, {0, Long.MAX_VALUE}};
+		for (long[] range : ranges) {
+			int from = (int) Math.min(range[0], SIZE);
+			int to = (int) Math.min(SIZE, from + Math.min(range[1], SIZE));
+			try (InputStream in = storage.getInputStream(range[0], range[1])) {
+				Assert.assertEquals(IOUtils.toByteArray(in), Arrays.copyOfRange(content, from, to), Arrays.toString(range));
+			}
+		}
+	}
+
+	@Test(dataProvider = "providers", expectedExceptions = IllegalArgumentException.class)
+	public void negativeOffsetIsRejected(StorageProvider provider) throws IOException {
+		Storage storage = provider.store(new ByteArrayInputStream(new byte[10]));
+		try {
+			((RangedStorage) storage).getInputStream(-1, 5);
+		} finally {
+			storage.delete();
+		}
+	}
+
+	private byte[] randomBytes() {
+		byte[] content = new byte[SIZE];
+		new Random(42).nextBytes(content);
+		return content;
+	}
+}
@@ -0,0 +1,130 @@
+package tech.blueglacier.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.storage.Storage;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class SlabStorageProviderTest {
+
+	@Test
+	public void contentSpansSlabs() throws IOException {
+		SlabStorageProvider provider = new SlabStorageProvider(16 * 1024 * 1024);
+		for (int length : new int[]{0, 100, 4096, 5000, 300000}) {
+			byte[] content = randomBytes(length);
+			Storage storage = provider.store(new ByteArrayInputStream(content));
+			try (InputStream in = storage.getInputStream()) {
+				Assert.assertEquals(IOUtils.toByteArray(in), content);
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			Assert.assertEquals(((TransferableStorage) storage).transferTo(Channels.newChannel(out)), length);
+			Assert.assertEquals(out.toByteArray(), content);
+			storage.delete();
+		}
+	}
+
+	@Test
+	public void rangesSpanSlabsAndOverflow() throws IOException {
+		// 4 KB and 16 KB slabs fit under the cap, the rest overflows
+		SlabStorageProvider provider = new SlabStorageProvider(20 * 1024, new MemoryStorageProvider());
+		byte[] content = randomBytes(30000);
+		Storage storage = provider.store(new ByteArrayInputStream(content));
+		Assert.assertEquals(provider.getUsedBytes(), 20 * 1024);
+		try (InputStream in = storage.getInputStream()) {
+			Assert.assertEquals(IOUtils.toByteArray(in), content);
+		}
+		long[][] ranges = {{100, 50}, {4000, 200}, {20000, 1000}, {25000, 10000}, {40000, 10}};
+		for (long[] range : ranges) {
+			int from = (int) Math.min(range[0], content.length);
+			int to = (int) Math.min(content.length, from + range[1]);
+			try (InputStream in = ((RangedStorage) storage).getInputStream(range[0], range[1])) {
+				Assert.assertEquals(IOUtils.toByteArray(in), Arrays.copyOfRange(content, from, to), Arrays.toString(range));
+			}
+		}
+		storage.delete();
+		Assert.assertEquals(provider.getUsedBytes(), 0);
+	}
+
+	@Test
+	public void slabsAreReusedAfterDelete() throws IOException {
+		SlabStorageProvider provider = new SlabStorageProvider(1024 * 1024);
+		for (int i = 0; i < 10; i++) {
+			byte[] content = randomBytes(50000);
+			Storage storage = provider.store(new ByteArrayInputStream(content));
+			try (InputStream in = storage.getInputStream()) {
+				Assert.assertEquals(IOUtils.toByteArray(in), content);
+			}
+			storage.delete();
+		}
+		Assert.assertEquals(provider.getAllocatedBytes(), (4 + 16 + 64) * 1024);
+		Assert.assertEquals(provider.getUsedBytes(), 0);
+	}
+
+	@Test
+	public void idleSlabsOfOtherSizesAreReclaimed() throws IOException {
+		SlabStorageProvider provider = new SlabStorageProvider(64 * 1024, new MemoryStorageProvider());
+		List<Storage> small = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			small.add(provider.store(new ByteArrayInputStream(randomBytes(100))));
+		}
+		for (Storage storage : small) {
+			storage.delete();
+		}
+		Assert.assertEquals(provider.getAllocatedBytes(), 64 * 1024);
+
+		// Only 4 KB slabs are pooled, a 16 KB slab is made room for rather than overflowing
+		byte[] content = randomBytes(20 * 1024);
+		Storage storage = provider.store(new ByteArrayInputStream(content));
+		Assert.assertEquals(provider.getUsedBytes(), 20 * 1024);
+		Assert.assertTrue(provider.getAllocatedBytes() <= 64 * 1024);
+		try (InputStream in = storage.getInputStream()) {
+			Assert.assertEquals(IOUtils.toByteArray(in), content);
+		}
+		storage.delete();
+	}
+
+	@Test
+	public void failedWritesReleaseTheirSlabs() {
+		SlabStorageProvider provider = new SlabStorageProvider(1024 * 1024);
+		InputStream failing = new SequenceInputStream(new ByteArrayInputStream(randomBytes(50000)), new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("read failed");
+			}
+		});
+		try {
+			provider.store(failing);
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertEquals(e.getMessage(), "read failed");
+		}
+		Assert.assertEquals(provider.getUsedBytes(), 0);
+		Assert.assertEquals(provider.getAllocatedBytes(), (4 + 16 + 64) * 1024);
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void deletedStorageCannotBeRead() throws IOException {
+		SlabStorageProvider provider = new SlabStorageProvider(1024 * 1024);
+		Storage storage = provider.store(new ByteArrayInputStream(randomBytes(100)));
+		InputStream in = storage.getInputStream();
+		storage.delete();
+		in.read();
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] content = new byte[length];
+		new Random(42).nextBytes(content);
+		return content;
+	}
+}
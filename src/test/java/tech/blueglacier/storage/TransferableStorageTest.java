@@ -0,0 +1,133 @@
+package tech.blueglacier.storage;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.storage.Storage;
+import org.apache.james.mime4j.storage.StorageProvider;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+public class TransferableStorageTest {
+
+	@DataProvider(name = "providers")
+	public Object[][] providers() {
+		return new Object[][]{
+				{new MemoryStorageProvider()},
+				{new TempFileStorageProvider()},
+				{new ThresholdStorageProvider(new MemoryStorageProvider(), 100)},
+				{new ThresholdStorageProvider(new TempFileStorageProvider(), 100)}
+		};
+	}
+
+	@Test(dataProvider = "providers")
+	public void transferWritesWholeContent(StorageProvider provider) throws IOException {
+		byte[] content = randomBytes(5000);
+		Storage storage = provider.store(new ByteArrayInputStream(content));
+		Assert.assertTrue(storage instanceof TransferableStorage);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Assert.assertEquals(((TransferableStorage) storage).transferTo(Channels.newChannel(out)), content.length);
+		Assert.assertEquals(out.toByteArray(), content);
+		storage.delete();
+	}
+
+	@Test(dataProvider = "providers")
+	public void savedFileOutlivesStorage(StorageProvider provider) throws IOException {
+		byte[] content = randomBytes(5000);
+		Storage storage = provider.store(new ByteArrayInputStream(content));
+		Path target = Files.createTempDirectory("test").resolve("saved");
+		try {
+			((TransferableStorage) storage).saveTo(target);
+			storage.delete();
+			Assert.assertEquals(Files.readAllBytes(target), content);
+		} finally {
+			Files.deleteIfExists(target);
+			Files.delete(target.getParent());
+		}
+	}
+
+	@Test(dataProvider = "providers")
+	public void savedFileIsACopy(StorageProvider provider) throws IOException {
+		byte[] content = randomBytes(5000);
+		Storage storage = provider.store(new ByteArrayInputStream(content));
+		Path target = Files.createTempDirectory("test").resolve("saved");
+		try {
+			((TransferableStorage) storage).saveTo(target);
+			((AppendableStorage) storage).append(new ByteArrayInputStream(new byte[100]));
+			Files.write(target, new byte[10], StandardOpenOption.APPEND);
+			Assert.assertEquals(Files.size(target), content.length + 10);
+			Assert.assertEquals(IOUtils.toByteArray(storage.getInputStream()).length, content.length + 100);
+		} finally {
+			storage.delete();
+			Files.deleteIfExists(target);
+			Files.delete(target.getParent());
+		}
+	}
+
+	@Test(dataProvider = "providers", expectedExceptions = IOException.class)
+	public void transferToFullChannelFails(StorageProvider provider) throws IOException {
+		Storage storage = provider.store(new ByteArrayInputStream(randomBytes(5000)));
+		try {
+			((TransferableStorage) storage).transferTo(new WritableByteChannel() {
+				public int write(ByteBuffer src) {
+					return 0;
+				}
+
+				public boolean isOpen() {
+					return true;
+				}
+
+				public void close() {
+				}
+			});
+		} finally {
+			storage.delete();
+		}
+	}
+
+	@Test(dataProvider = "providers", expectedExceptions = FileAlreadyExistsException.class)
+	public void saveNeverOverwrites(StorageProvider provider) throws IOException {
+		Storage storage = provider.store(new ByteArrayInputStream(randomBytes(10)));
+		Path target = Files.createTempFile("test", ".tmp");
+		try {
+			((TransferableStorage) storage).saveTo(target);
+		} finally {
+			Files.delete(target);
+			storage.delete();
+		}
+	}
+
+	@Test
+	public void bufferStorageTransfersItsRange() throws IOException {
+		byte[] content = randomBytes(100);
+		ByteBuffer buffer = ByteBuffer.wrap(content);
+		buffer.position(10).limit(60);
+		ByteBufferStorage storage = new ByteBufferStorage(buffer);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Assert.assertEquals(storage.transferTo(Channels.newChannel(out)), 50);
+		Assert.assertEquals(storage.transferTo(Channels.newChannel(out)), 50);
+		byte[] written = out.toByteArray();
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(written[i], content[10 + i % 50]);
+		}
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] content = new byte[length];
+		new Random(42).nextBytes(content);
+		return content;
+	}
+}